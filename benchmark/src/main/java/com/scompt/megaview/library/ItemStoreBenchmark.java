@@ -0,0 +1,97 @@
+package com.scompt.megaview.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The {@link SegmentedItemStore} against a {@link ListItemStore} around an ArrayList: appending
+ * pages, replacing an evicted page with one of a different size, prepending a page and looking up
+ * rows while binding.
+ */
+@State(Scope.Benchmark)
+public class ItemStoreBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"segmented", "list"})
+    public String store;
+
+    @Param({"50", "2000"})
+    public int pages;
+
+    private List<Long> mPage;
+    private List<Long> mShortPage;
+    private ItemStore<Long> mStore;
+    private int[] mPositions;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        mPage = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            mPage.add((long) i);
+        }
+        mShortPage = mPage.subList(0, PAGE_SIZE - 1);
+
+        mStore = fill();
+        Random random = new Random(42);
+        mPositions = new int[1024];
+        for (int i = 0; i < mPositions.length; i++) {
+            mPositions[i] = random.nextInt(pages * PAGE_SIZE / 2);
+        }
+    }
+
+    private ItemStore<Long> newStore() {
+        return "segmented".equals(store) ? new SegmentedItemStore<Long>() : new ListItemStore<>(new ArrayList<Long>());
+    }
+
+    private ItemStore<Long> fill() {
+        ItemStore<Long> items = newStore();
+        for (int page = 0; page < pages; page++) {
+            items.addPage(items.size(), mPage);
+        }
+        return items;
+    }
+
+    @Benchmark
+    public ItemStore<Long> appendPages() {
+        return fill();
+    }
+
+    @Benchmark
+    public Long replacePage() {
+        // Restoring a page that came back one row shorter and then growing it again
+        mNext = (mNext + 1) & (mPositions.length - 1);
+        int start = mPositions[mNext] / PAGE_SIZE * PAGE_SIZE;
+        mStore.removeRange(start + PAGE_SIZE - 1, start + PAGE_SIZE);
+        mStore.addAll(start + PAGE_SIZE - 1, Collections.singletonList(0L));
+        return mStore.get(start);
+    }
+
+    @Benchmark
+    public Long prependAndDropPage() {
+        mStore.addPage(0, mShortPage);
+        mStore.removeRange(0, mShortPage.size());
+        return mStore.get(0);
+    }
+
+    @Benchmark
+    public Long get() {
+        mNext = (mNext + 1) & (mPositions.length - 1);
+        return mStore.get(mPositions[mNext]);
+    }
+
+    @Benchmark
+    public Long getSequential() {
+        mNext = (mNext + 1) % (pages * PAGE_SIZE);
+        return mStore.get(mNext);
+    }
+}
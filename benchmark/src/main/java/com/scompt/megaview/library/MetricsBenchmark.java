@@ -0,0 +1,20 @@
+package com.scompt.megaview.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The cost metrics add to every bind.
+ */
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+
+    private final PagingMetrics.Histogram mHistogram = new PagingMetrics.Histogram();
+    private long mValue;
+
+    @Benchmark
+    public void record() {
+        mHistogram.record(mValue++ & 0xffff);
+    }
+}
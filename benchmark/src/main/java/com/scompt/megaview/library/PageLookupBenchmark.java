@@ -0,0 +1,113 @@
+package com.scompt.megaview.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The positional lookups done while binding and scrolling: the view type of an adapter position,
+ * with and without a filter, and finding the page of a position, also right after a page changed
+ * size.
+ *
+ * {@link #viewType} runs the {@link RowLookup} calls {@code getItemViewType} is made of, only the
+ * binder's own view types are left out.
+ */
+@State(Scope.Benchmark)
+public class PageLookupBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+    private static final int TYPE_ROW = 0;
+    private static final int TYPE_PLACEHOLDER = 1;
+    private static final int TYPE_FOOTER = 2;
+
+    @Param({"10", "1000"})
+    public int pages;
+
+    private PageTable mTable;
+    private ItemStore<Object> mItems;
+    private FilterIndex mFilter;
+    private int[] mPositions;
+    private int[] mAdapterPositions;
+    private int mNext;
+    private boolean mFooter = true;
+
+    @Setup
+    public void setUp() {
+        mTable = new PageTable();
+        mItems = new SegmentedItemStore<>();
+        List<Object> placeholders = Collections.nCopies(PAGE_SIZE, null);
+        for (int page = 0; page < pages; page++) {
+            mTable.append(PAGE_SIZE);
+
+            // Every fourth page evicted, as with a page window
+            if (page % 4 == 3) {
+                mItems.addPage(mItems.size(), placeholders);
+            } else {
+                Object[] rows = new Object[PAGE_SIZE];
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    rows[i] = Integer.valueOf(page * PAGE_SIZE + i);
+                }
+                mItems.addPage(mItems.size(), Arrays.asList(rows));
+            }
+        }
+
+        // Every other row passes
+        int[] filtered = new int[mItems.size()];
+        int count = 0;
+        for (int i = 0; i < mItems.size(); i += 2) {
+            filtered[count++] = i;
+        }
+        mFilter = new FilterIndex(filtered, count);
+
+        Random random = new Random(42);
+        mPositions = new int[1024];
+        for (int i = 0; i < mPositions.length; i++) {
+            mPositions[i] = random.nextInt(pages * PAGE_SIZE);
+        }
+        // Including the footer
+        mAdapterPositions = new int[1024];
+        for (int i = 0; i < mAdapterPositions.length; i++) {
+            mAdapterPositions[i] = random.nextInt(pages * PAGE_SIZE + 1);
+        }
+    }
+
+    @Benchmark
+    public int itemViewType() {
+        mNext = (mNext + 1) & (mPositions.length - 1);
+        return viewType(mItems, null, mFooter, mAdapterPositions[mNext]);
+    }
+
+    @Benchmark
+    public int itemViewTypeFiltered() {
+        mNext = (mNext + 1) & (mPositions.length - 1);
+        return viewType(mItems, mFilter, mFooter, mAdapterPositions[mNext] % (mFilter.size() + 1));
+    }
+
+    @Benchmark
+    public int pageAt() {
+        mNext = (mNext + 1) & (mPositions.length - 1);
+        return mTable.pageAt(mPositions[mNext]);
+    }
+
+    @Benchmark
+    public int pageAtAfterResize() {
+        mNext = (mNext + 1) & (mPositions.length - 1);
+        int page = mTable.pageAt(mPositions[mNext]);
+        mTable.setSize(page, mTable.sizeOf(page));
+        return mTable.pageAt(mPositions[mNext]);
+    }
+
+    private static int viewType(ItemStore<Object> items, FilterIndex filter, boolean footer, int position) {
+        if (RowLookup.isFooter(items, filter, footer, position)) {
+            return TYPE_FOOTER;
+        }
+        return RowLookup.getRow(items, filter, position) == null ? TYPE_PLACEHOLDER : TYPE_ROW;
+    }
+}
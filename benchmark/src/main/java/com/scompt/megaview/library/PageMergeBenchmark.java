@@ -0,0 +1,88 @@
+package com.scompt.megaview.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merging pages into the data holder the way MegaView's page subscriber does: record the page in
+ * the {@link PageTable}, drop items whose key is already known and add the rest to the
+ * {@link SegmentedItemStore} as a page of its own. Dropping pages again from the end is what
+ * happens to the pages merged after a failed one.
+ */
+@State(Scope.Benchmark)
+public class PageMergeBenchmark {
+
+    @Param({"20", "100"})
+    public int pageSize;
+
+    @Param({"50", "500"})
+    public int pages;
+
+    private List<List<Long>> mPages;
+
+    @Setup
+    public void setUp() {
+        mPages = new ArrayList<>(pages);
+        for (int page = 0; page < pages; page++) {
+            List<Long> items = new ArrayList<>(pageSize);
+            for (int i = 0; i < pageSize; i++) {
+                // Every page repeats the last item of the previous one, like a shifting backend
+                items.add((long) page * (pageSize - 1) + i);
+            }
+            mPages.add(items);
+        }
+    }
+
+    @Benchmark
+    public ItemStore<Long> append() {
+        ItemStore<Long> items = new SegmentedItemStore<>();
+        PageTable table = new PageTable();
+        for (List<Long> page : mPages) {
+            table.append(page.size());
+            items.addPage(items.size(), page);
+        }
+        return items;
+    }
+
+    @Benchmark
+    public ItemStore<Long> appendWithoutDuplicates() {
+        ItemStore<Long> items = new SegmentedItemStore<>();
+        PageTable table = new PageTable();
+        LongHashSet keys = new LongHashSet();
+        for (List<Long> page : mPages) {
+            table.append(0);
+            List<Long> unique = new ArrayList<>(page.size());
+            for (Long item : page) {
+                if (keys.add(item)) {
+                    unique.add(item);
+                }
+            }
+            items.addPage(items.size(), unique);
+            table.growLast(unique.size());
+        }
+        return items;
+    }
+
+    @Benchmark
+    public ItemStore<Long> appendThenRemove() {
+        ItemStore<Long> items = new SegmentedItemStore<>();
+        PageTable table = new PageTable();
+        for (List<Long> page : mPages) {
+            table.append(page.size());
+            items.addPage(items.size(), page);
+        }
+        while (table.size() > 0) {
+            int last = table.size() - 1;
+            int start = table.startOf(last);
+            items.removeRange(start, start + table.sizeOf(last));
+            table.removeLast();
+        }
+        return items;
+    }
+}
@@ -0,0 +1,54 @@
+package com.scompt.megaview.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.Subscriber;
+
+/**
+ * The Rx pipeline from a page function to the page subscriber, without the thread hops: a whole
+ * page collected with toList(), or the page streamed in batches with buffer().
+ */
+@State(Scope.Benchmark)
+public class PagePipelineBenchmark {
+
+    @Param({"20", "100"})
+    public int pageSize;
+
+    @Param({"0", "10"})
+    public int batchSize;
+
+    @Benchmark
+    public List<Integer> page() {
+        Observable<Integer> page = Observable.range(0, pageSize);
+        Observable<List<Integer>> batches = batchSize > 0 ? page.buffer(batchSize) : page.toList();
+
+        CollectingSubscriber subscriber = new CollectingSubscriber();
+        batches.subscribe(subscriber);
+        return subscriber.mItems;
+    }
+
+    private static class CollectingSubscriber extends Subscriber<List<Integer>> {
+        private final ArrayList<Integer> mItems = new ArrayList<>();
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            throw new IllegalStateException(e);
+        }
+
+        @Override
+        public void onNext(List<Integer> batch) {
+            mItems.addAll(batch);
+        }
+    }
+}
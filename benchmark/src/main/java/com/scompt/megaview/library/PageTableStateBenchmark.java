@@ -0,0 +1,46 @@
+package com.scompt.megaview.library;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Saving and restoring the page table, the part of MegaView's SavedState that grows with the
+ * list. Parcel itself is native and can't run outside of Android, so only the copying on either
+ * side of it is measured.
+ */
+@State(Scope.Benchmark)
+public class PageTableStateBenchmark {
+
+    @Param({"10", "1000"})
+    public int pages;
+
+    private PageTable mTable;
+    private int[] mSizes;
+    private boolean[] mEvicted;
+
+    @Setup
+    public void setUp() {
+        mTable = new PageTable();
+        for (int page = 0; page < pages; page++) {
+            mTable.append(20);
+            mTable.setEvicted(page, page % 3 == 0);
+        }
+        mSizes = mTable.getSizes();
+        mEvicted = mTable.getEvicted();
+    }
+
+    @Benchmark
+    public int save() {
+        return mTable.getSizes().length + mTable.getEvicted().length;
+    }
+
+    @Benchmark
+    public PageTable restore() {
+        PageTable table = new PageTable();
+        table.restore(mSizes, mEvicted);
+        return table;
+    }
+}
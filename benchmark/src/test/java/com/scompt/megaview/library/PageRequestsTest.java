@@ -0,0 +1,158 @@
+package com.scompt.megaview.library;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+import rx.subscriptions.Subscriptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PageRequestsTest {
+
+    private TestScheduler mScheduler;
+    private PageRequests<Integer, TestSubscriber<Integer>> mRequests;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TestScheduler();
+        mRequests = new PageRequests<>(mScheduler);
+    }
+
+    @Test
+    public void startDeliversOnScheduler() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        assertTrue(mRequests.start(0, subscriber, Observable.just(1, 2)));
+        assertTrue(subscriber.getOnNextEvents().isEmpty());
+
+        mScheduler.triggerActions();
+        subscriber.assertReceivedOnNext(Arrays.asList(1, 2));
+        assertEquals(1, subscriber.getOnCompletedEvents().size());
+    }
+
+    @Test
+    public void startIgnoresPageInFlight() {
+        PublishSubject<Integer> source = PublishSubject.create();
+        TestSubscriber<Integer> first = new TestSubscriber<>();
+        TestSubscriber<Integer> second = new TestSubscriber<>();
+        PublishSubject<Integer> other = PublishSubject.create();
+
+        assertTrue(mRequests.start(3, first, source));
+        assertFalse(mRequests.start(3, second, other));
+        assertFalse(other.hasObservers());
+        assertEquals(1, mRequests.size());
+        assertSame(first, mRequests.get(3));
+        assertTrue(mRequests.isCurrent(3, first));
+        assertFalse(mRequests.isCurrent(3, second));
+
+        source.onNext(7);
+        mScheduler.triggerActions();
+        first.assertReceivedOnNext(Collections.singletonList(7));
+        assertTrue(second.getOnNextEvents().isEmpty());
+    }
+
+    @Test
+    public void removeForgetsWithoutUnsubscribing() {
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        mRequests.start(0, subscriber, PublishSubject.<Integer>create());
+
+        mRequests.remove(0);
+        assertTrue(mRequests.isEmpty());
+        assertFalse(subscriber.isUnsubscribed());
+
+        // The page can be requested again
+        assertTrue(mRequests.start(0, new TestSubscriber<Integer>(), Observable.<Integer>empty()));
+    }
+
+    @Test
+    public void cancelUnsubscribes() {
+        PublishSubject<Integer> source = PublishSubject.create();
+        TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        mRequests.start(1, subscriber, source);
+
+        mRequests.cancel(1);
+        assertTrue(subscriber.isUnsubscribed());
+        assertNull(mRequests.get(1));
+
+        source.onNext(1);
+        mScheduler.triggerActions();
+        assertTrue(subscriber.getOnNextEvents().isEmpty());
+    }
+
+    @Test
+    public void cancelFromKeepsEarlierPages() {
+        TestSubscriber<Integer>[] subscribers = startPages(5);
+
+        mRequests.cancelFrom(2);
+        assertEquals(2, mRequests.size());
+        assertFalse(subscribers[0].isUnsubscribed());
+        assertFalse(subscribers[1].isUnsubscribed());
+        assertTrue(subscribers[2].isUnsubscribed());
+        assertTrue(subscribers[3].isUnsubscribed());
+        assertTrue(subscribers[4].isUnsubscribed());
+    }
+
+    @Test
+    public void cancelOutsideKeepsRange() {
+        TestSubscriber<Integer>[] subscribers = startPages(5);
+
+        mRequests.cancelOutside(1, 3);
+        assertEquals(3, mRequests.size());
+        assertTrue(subscribers[0].isUnsubscribed());
+        assertFalse(subscribers[1].isUnsubscribed());
+        assertFalse(subscribers[2].isUnsubscribed());
+        assertFalse(subscribers[3].isUnsubscribed());
+        assertTrue(subscribers[4].isUnsubscribed());
+    }
+
+    @Test
+    public void cancelAllUnsubscribesEverything() {
+        TestSubscriber<Integer>[] subscribers = startPages(3);
+
+        mRequests.cancelAll();
+        assertTrue(mRequests.isEmpty());
+        for (TestSubscriber<Integer> subscriber : subscribers) {
+            assertTrue(subscriber.isUnsubscribed());
+        }
+    }
+
+    @Test
+    public void cancelAllowsCallbacksIntoRequests() {
+        TestSubscriber<Integer>[] subscribers = startPages(3);
+
+        // Unsubscribing calls back into the requests while they are being cancelled
+        subscribers[0].add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                mRequests.remove(1);
+                mRequests.start(5, new TestSubscriber<Integer>(), PublishSubject.<Integer>create());
+            }
+        }));
+
+        mRequests.cancelAll();
+        assertTrue(subscribers[1].isUnsubscribed());
+        assertEquals(1, mRequests.size());
+        assertTrue(mRequests.get(5) != null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TestSubscriber<Integer>[] startPages(int count) {
+        TestSubscriber<Integer>[] subscribers = new TestSubscriber[count];
+        for (int page = 0; page < count; page++) {
+            subscribers[page] = new TestSubscriber<>();
+            mRequests.start(page, subscribers[page], PublishSubject.<Integer>create());
+        }
+        return subscribers;
+    }
+}
@@ -0,0 +1,59 @@
+package com.scompt.megaview.library;
+
+/**
+ * Estimates how many rows the user scrolls through while a page is loading, from the measured
+ * page latency and scroll velocity, see {@link MegaView#setAdaptivePrefetch(int)}. Both are
+ * smoothed with an exponential moving average, so a single slow page or a flick doesn't swing
+ * the estimate. Pausing between scrolls counts as not scrolling at all, so slow readers end up
+ * with the configured minimum.
+ *
+ * Only used from the main thread.
+ */
+class AdaptivePrefetch {
+
+    // The weight of a new sample in the moving averages
+    private static final double SMOOTHING = 0.3;
+    // Requests have to start this much earlier than the average latency suggests
+    private static final double HEADROOM = 1.5;
+    // Scroll events further apart than this are separate scrolls
+    private static final long MAX_SCROLL_GAP_NANOS = 200 * 1000000L;
+
+    private double mLatencyMillis;
+    private double mRowsPerSecond;
+    private long mLastScrollNanos;
+
+    void recordLatency(long millis) {
+        mLatencyMillis = mLatencyMillis == 0 ? millis : mLatencyMillis + SMOOTHING * (millis - mLatencyMillis);
+    }
+
+    /**
+     * @param rows rows scrolled towards the end of the list since the last call, negative when
+     *             scrolling back.
+     */
+    void recordScroll(float rows, long nowNanos) {
+        long elapsed = nowNanos - mLastScrollNanos;
+        mLastScrollNanos = nowNanos;
+        if (elapsed <= 0 || elapsed > MAX_SCROLL_GAP_NANOS) {
+            return;
+        }
+        double velocity = Math.max(0, rows) * 1e9 / elapsed;
+        mRowsPerSecond += SMOOTHING * (velocity - mRowsPerSecond);
+    }
+
+    /**
+     * Scrolling stopped, which counts as a sample of no velocity.
+     */
+    void recordIdle() {
+        mLastScrollNanos = 0;
+        mRowsPerSecond -= SMOOTHING * mRowsPerSecond;
+    }
+
+    /**
+     * @return the rows that scroll by while a page is loading, with some headroom, between
+     * {@code min} and {@code max}.
+     */
+    int getRowsAhead(int min, int max) {
+        int rows = (int) Math.ceil(mRowsPerSecond * mLatencyMillis / 1000 * HEADROOM);
+        return Math.max(min, Math.min(max, rows));
+    }
+}
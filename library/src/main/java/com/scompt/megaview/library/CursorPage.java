@@ -0,0 +1,50 @@
+package com.scompt.megaview.library;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * A page returned by a {@link MegaView.CursorDataSource}: its items, and the opaque cursors to
+ * request the pages after and before it with. A page without a next cursor is the last one.
+ */
+public class CursorPage<T> {
+
+    private final List<T> mItems;
+    private final String mNextCursor;
+    private final String mPreviousCursor;
+
+    public CursorPage(@NonNull List<T> items, @Nullable String nextCursor) {
+        this(items, nextCursor, null);
+    }
+
+    public CursorPage(@NonNull List<T> items, @Nullable String nextCursor, @Nullable String previousCursor) {
+        mItems = items;
+        mNextCursor = nextCursor;
+        mPreviousCursor = previousCursor;
+    }
+
+    public List<T> getItems() {
+        return mItems;
+    }
+
+    @Nullable
+    public String getNextCursor() {
+        return mNextCursor;
+    }
+
+    @Nullable
+    public String getPreviousCursor() {
+        return mPreviousCursor;
+    }
+
+    @Override
+    public String toString() {
+        return "CursorPage{" +
+                "items=" + mItems.size() +
+                ", nextCursor=" + mNextCursor +
+                ", previousCursor=" + mPreviousCursor +
+                '}';
+    }
+}
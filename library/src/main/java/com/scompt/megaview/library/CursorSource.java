@@ -0,0 +1,159 @@
+package com.scompt.megaview.library;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func1;
+
+/**
+ * Adapts a {@link MegaView.CursorDataSource} to the page numbers the rest of MegaView works with.
+ * The cursor of a page is the next cursor of the page before it, or the previous cursor of the
+ * page after it, so a page can only be requested once one of its neighbours has arrived, see
+ * {@link #isKnown(int)}. Pages beyond the first and the last one are empty.
+ *
+ * Cursors are recorded on whatever thread the data source responds on, everything else is called
+ * from the main thread. Responses to requests made before a {@link #reset(int)} or
+ * {@link #restore} don't record anything, so a late response can't end or redirect the new list.
+ */
+class CursorSource<T> implements Func1<Integer, Observable<T>> {
+
+    private final MegaView.CursorDataSource<T> mSource;
+    private final HashMap<Integer, String> mCursors = new HashMap<>();
+    private String mStartCursor;
+    private int mFirstPage = Integer.MIN_VALUE;
+    private int mLastPage = Integer.MAX_VALUE;
+    private int mGeneration;
+
+    CursorSource(MegaView.CursorDataSource<T> source, int startPage) {
+        mSource = source;
+        reset(startPage);
+    }
+
+    /**
+     * The cursor to start at, or {@code null} to start at the beginning. Takes effect with the
+     * next {@link #reset(int)}.
+     */
+    synchronized void setStartCursor(String cursor) {
+        mStartCursor = cursor;
+    }
+
+    synchronized String getStartCursor() {
+        return mStartCursor;
+    }
+
+    synchronized boolean hasStartCursor() {
+        return mStartCursor != null;
+    }
+
+    /**
+     * Forgets every cursor, {@code startPage} is requested with the start cursor.
+     */
+    synchronized void reset(int startPage) {
+        mGeneration++;
+        mCursors.clear();
+        mCursors.put(startPage, mStartCursor);
+        mFirstPage = Integer.MIN_VALUE;
+        mLastPage = Integer.MAX_VALUE;
+    }
+
+    synchronized boolean isKnown(int page) {
+        return page < mFirstPage || page > mLastPage || mCursors.containsKey(page);
+    }
+
+    @Override
+    public Observable<T> call(final Integer page) {
+        String cursor;
+        final int generation;
+        synchronized (this) {
+            if (page < mFirstPage || page > mLastPage) {
+                return Observable.empty();
+            }
+            cursor = mCursors.get(page);
+            generation = mGeneration;
+        }
+
+        return mSource.call(cursor)
+                .doOnNext(new Action1<CursorPage<T>>() {
+                    @Override
+                    public void call(CursorPage<T> response) {
+                        record(page, response, generation);
+                    }
+                })
+                .concatMap(new Func1<CursorPage<T>, Observable<T>>() {
+                    @Override
+                    public Observable<T> call(CursorPage<T> response) {
+                        return Observable.from(response.getItems());
+                    }
+                });
+    }
+
+    private synchronized void record(int page, CursorPage<T> response, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+
+        String next = response.getNextCursor();
+        if (next == null) {
+            mLastPage = page;
+        } else {
+            mCursors.put(page + 1, next);
+            if (mLastPage <= page) {
+                mLastPage = Integer.MAX_VALUE;
+            }
+        }
+
+        String previous = response.getPreviousCursor();
+        if (previous == null) {
+            mFirstPage = page;
+        } else {
+            if (!mCursors.containsKey(page - 1)) {
+                mCursors.put(page - 1, previous);
+            }
+            if (mFirstPage >= page) {
+                mFirstPage = Integer.MIN_VALUE;
+            }
+        }
+    }
+
+    /**
+     * @return the lowest page with a known cursor.
+     */
+    synchronized int getLowestPage() {
+        int lowest = Integer.MAX_VALUE;
+        for (int page : mCursors.keySet()) {
+            lowest = Math.min(lowest, page);
+        }
+        return lowest;
+    }
+
+    /**
+     * @return the cursors of {@code fromPage} and every known page after it, in order.
+     */
+    synchronized String[] getCursors(int fromPage) {
+        ArrayList<String> cursors = new ArrayList<>();
+        for (int page = fromPage; mCursors.containsKey(page); page++) {
+            cursors.add(mCursors.get(page));
+        }
+        return cursors.toArray(new String[cursors.size()]);
+    }
+
+    synchronized int getFirstPage() {
+        return mFirstPage;
+    }
+
+    synchronized int getLastPage() {
+        return mLastPage;
+    }
+
+    synchronized void restore(int fromPage, String[] cursors, int firstPage, int lastPage) {
+        mGeneration++;
+        mCursors.clear();
+        for (int i = 0; i < cursors.length; i++) {
+            mCursors.put(fromPage + i, cursors[i]);
+        }
+        mFirstPage = firstPage;
+        mLastPage = lastPage;
+    }
+}
@@ -0,0 +1,145 @@
+package com.scompt.megaview.library;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link PageStore} that keeps one file per page in a directory, typically somewhere under
+ * {@code Context.getCacheDir()}. Each file holds the item count followed by the items as written
+ * by the {@link ItemSerializer}.
+ */
+public class DiskPageStore<T> implements PageStore<T> {
+
+    private static final String PREFIX = "page-";
+    private static final String SESSION = "session";
+
+    private final File mDirectory;
+    private final ItemSerializer<T> mSerializer;
+
+    public DiskPageStore(@NonNull File directory, @NonNull ItemSerializer<T> serializer) {
+        mDirectory = directory;
+        mSerializer = serializer;
+    }
+
+    @Override
+    public List<T> read(int page) throws IOException {
+        File file = fileFor(page);
+        if (!file.exists()) {
+            return null;
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the whole file is in the buffer
+            }
+
+            DataInputStream data = new DataInputStream(
+                    new ByteArrayInputStream(buffer.array(), 0, buffer.position()));
+            int count = data.readInt();
+            List<T> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(mSerializer.read(data));
+            }
+            return items;
+        } catch (IOException e) {
+            // Most likely a partially written or outdated file, don't try it again
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void write(int page, List<T> items) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Can't create " + mDirectory);
+        }
+
+        File temp = new File(mDirectory, PREFIX + page + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(items.size());
+            for (T item : items) {
+                mSerializer.write(out, item);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(fileFor(page))) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Can't write page " + page);
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().startsWith(PREFIX) && !file.delete()) {
+                throw new IOException("Can't delete " + file);
+            }
+        }
+    }
+
+    @Override
+    public String readSession() throws IOException {
+        File file = new File(mDirectory, SESSION);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readUTF();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void writeSession(String session) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Can't create " + mDirectory);
+        }
+
+        File temp = new File(mDirectory, SESSION + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeUTF(session);
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(new File(mDirectory, SESSION))) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Can't write session");
+        }
+    }
+
+    private File fileFor(int page) {
+        return new File(mDirectory, PREFIX + page);
+    }
+}
@@ -0,0 +1,89 @@
+package com.scompt.megaview.library;
+
+import java.util.Arrays;
+
+/**
+ * The positions in the data holder of the rows that pass a filter, in order, see
+ * {@link MegaView#setFilter}. Row {@code i} of the filtered list is the row at {@link #get(int)}
+ * in the data holder.
+ */
+class FilterIndex {
+
+    private int[] mPositions;
+    private int mSize;
+
+    FilterIndex(int[] positions, int size) {
+        mPositions = positions;
+        mSize = size;
+    }
+
+    /**
+     * @return an index that lets every one of {@code count} rows pass.
+     */
+    static FilterIndex all(int count) {
+        int[] positions = new int[Math.max(16, count)];
+        for (int i = 0; i < count; i++) {
+            positions[i] = i;
+        }
+        return new FilterIndex(positions, count);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int get(int index) {
+        return mPositions[index];
+    }
+
+    /**
+     * @return the index of the first row at or after {@code position}, which is {@link #size()}
+     * if there is none.
+     */
+    int indexOf(int position) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mPositions[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    boolean contains(int position) {
+        int index = indexOf(position);
+        return index < mSize && mPositions[index] == position;
+    }
+
+    /**
+     * Adds {@code by} to the positions from {@code index} on, after rows were inserted or removed
+     * in front of them.
+     */
+    void shift(int index, int by) {
+        for (int i = index; i < mSize; i++) {
+            mPositions[i] += by;
+        }
+    }
+
+    void insert(int index, int[] positions, int count) {
+        if (mSize + count > mPositions.length) {
+            mPositions = Arrays.copyOf(mPositions, Math.max(mSize + count, mPositions.length * 2));
+        }
+        System.arraycopy(mPositions, index, mPositions, index + count, mSize - index);
+        System.arraycopy(positions, 0, mPositions, index, count);
+        mSize += count;
+    }
+
+    void insert(int index, FilterIndex positions) {
+        insert(index, positions.mPositions, positions.mSize);
+    }
+
+    void remove(int from, int to) {
+        System.arraycopy(mPositions, to, mPositions, from, mSize - to);
+        mSize -= to - from;
+    }
+}
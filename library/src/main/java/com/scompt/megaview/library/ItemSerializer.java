@@ -0,0 +1,15 @@
+package com.scompt.megaview.library;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes items to and reads them from a compact binary form, for the parts of MegaView that keep
+ * pages on disk.
+ */
+public interface ItemSerializer<T> {
+    public void write(DataOutput out, T item) throws IOException;
+
+    public T read(DataInput in) throws IOException;
+}
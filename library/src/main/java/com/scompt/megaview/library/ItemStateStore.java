@@ -0,0 +1,185 @@
+package com.scompt.megaview.library;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+
+/**
+ * Keeps the rows of a MegaView on disk so that its saved state only needs a handle to them, see
+ * {@link MegaView#setStateDirectory(File, ItemSerializer)}. Each handle is a directory of its own
+ * below the state directory, holding one {@link DiskPageStore} file per page of the page table.
+ *
+ * Writes and deletions are queued on a single background thread shared by all MegaViews, so a
+ * page written after a {@link #clear()} is never deleted by it.
+ *
+ * Nothing tells a view that the saved state holding its handle was thrown away, e.g. after a cold
+ * start. So whenever a store is set up, the handles below the state directory that no view of
+ * this process uses and that weren't written for {@link #MAX_AGE_MILLIS} are deleted.
+ */
+class ItemStateStore<T> {
+
+    private static final String LOG_TAG = ItemStateStore.class.getSimpleName();
+
+    private static final Scheduler WRITER = Schedulers.from(Executors.newSingleThreadExecutor());
+    private static final Random RANDOM = new Random();
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Handle directories a view of this process may still read, including saved but not yet
+    // restored ones. Guarded by itself.
+    private static final Set<File> LIVE = new HashSet<>();
+
+    private final File mDirectory;
+    private final ItemSerializer<T> mSerializer;
+    private String mHandle;
+    private volatile DiskPageStore<T> mPages;
+
+    ItemStateStore(File directory, ItemSerializer<T> serializer) {
+        mDirectory = directory;
+        mSerializer = serializer;
+        setHandle(Long.toHexString(RANDOM.nextLong()));
+        sweep();
+    }
+
+    String getHandle() {
+        return mHandle;
+    }
+
+    /**
+     * Switches to the pages saved under {@code handle}, dropping the ones written so far.
+     */
+    void restore(String handle) {
+        if (handle.equals(mHandle)) {
+            return;
+        }
+        release();
+        setHandle(handle);
+
+        // Don't let it age out while it is in use again
+        final File directory = new File(mDirectory, handle);
+        schedule(new Action0() {
+            @Override
+            public void call() {
+                //noinspection ResultOfMethodCallIgnored
+                directory.setLastModified(System.currentTimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Deletes the pages written so far, for when no saved state refers to them. Pages written
+     * afterwards go to the same handle.
+     */
+    void release() {
+        synchronized (LIVE) {
+            LIVE.remove(new File(mDirectory, mHandle));
+        }
+        clear();
+    }
+
+    /**
+     * @return the stored page, or {@code null} if it wasn't written (yet). Called on a background
+     * thread.
+     */
+    List<T> read(int page) {
+        try {
+            return mPages.read(page);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "error reading page " + page, e);
+            return null;
+        }
+    }
+
+    void write(final int page, final List<T> items) {
+        final DiskPageStore<T> pages = mPages;
+        schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    pages.write(page, items);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "error writing page " + page, e);
+                }
+            }
+        });
+    }
+
+    void clear() {
+        final DiskPageStore<T> pages = mPages;
+        final File directory = new File(mDirectory, mHandle);
+        schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    pages.clear();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "error clearing " + directory, e);
+                }
+                //noinspection ResultOfMethodCallIgnored
+                directory.delete();
+            }
+        });
+    }
+
+    private void setHandle(String handle) {
+        mHandle = handle;
+        File directory = new File(mDirectory, handle);
+        synchronized (LIVE) {
+            LIVE.add(directory);
+        }
+        mPages = new DiskPageStore<>(directory, mSerializer);
+    }
+
+    private void sweep() {
+        final File root = mDirectory;
+        final ItemSerializer<T> serializer = mSerializer;
+        schedule(new Action0() {
+            @Override
+            public void call() {
+                File[] directories = root.listFiles();
+                if (directories == null) {
+                    return;
+                }
+                long oldest = System.currentTimeMillis() - MAX_AGE_MILLIS;
+                for (File directory : directories) {
+                    synchronized (LIVE) {
+                        if (LIVE.contains(directory) || directory.lastModified() > oldest) {
+                            continue;
+                        }
+                    }
+                    try {
+                        new DiskPageStore<>(directory, serializer).clear();
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "error clearing " + directory, e);
+                    }
+                    //noinspection ResultOfMethodCallIgnored
+                    directory.delete();
+                }
+            }
+        });
+    }
+
+    private static void schedule(final Action0 action) {
+        final Scheduler.Worker worker = WRITER.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    action.call();
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
+}
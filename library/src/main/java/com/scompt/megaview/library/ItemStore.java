@@ -0,0 +1,33 @@
+package com.scompt.megaview.library;
+
+import java.util.List;
+
+/**
+ * Holds the rows of a MegaView, see {@link MegaView#setItemStore(ItemStore)}. Placeholder rows are
+ * {@code null}. MegaView adds rows a page at a time, appends to the last page while it streams in,
+ * and replaces or drops whole pages. All methods are called from the main thread.
+ */
+public interface ItemStore<T> {
+    public int size();
+
+    public T get(int position);
+
+    public void set(int position, T item);
+
+    /**
+     * Inserts {@code items} at {@code position} as a new page.
+     */
+    public void addPage(int position, List<? extends T> items);
+
+    /**
+     * Inserts {@code items} at {@code position} as part of the page before it.
+     */
+    public void addAll(int position, List<? extends T> items);
+
+    /**
+     * Removes the rows from {@code from}, inclusive, to {@code to}, exclusive.
+     */
+    public void removeRange(int from, int to);
+
+    public void clear();
+}
@@ -0,0 +1,206 @@
+package com.scompt.megaview.library;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The adapter notifications that turn one list into another. Computing it only needs the two
+ * lists and a {@link MegaView.DiffCallback}, so it can run on a background thread, while
+ * {@link #dispatchTo(RecyclerView.Adapter)} has to run on the main thread after the data holder
+ * has been updated.
+ *
+ * Items are matched by identity with a longest common subsequence. Matched items that fell out of
+ * that subsequence become moves, the rest become removals and insertions, and matched items with
+ * different contents become changes. The table is quadratic in the list sizes, so this is meant
+ * for a page or two of items, not whole feeds.
+ */
+class ListDiff {
+
+    private static final int REMOVE = 0;
+    private static final int INSERT = 1;
+    private static final int MOVE = 2;
+    private static final int CHANGE = 3;
+
+    // Triples of (operation, position, count or target position)
+    private int[] mOps = new int[24];
+    private int mSize;
+
+    private ListDiff() {
+    }
+
+    static <T> ListDiff compute(List<T> oldItems, List<T> newItems, MegaView.DiffCallback<T> callback) {
+        int oldSize = oldItems.size();
+        int newSize = newItems.size();
+
+        int[][] lcs = new int[oldSize + 1][newSize + 1];
+        for (int i = oldSize - 1; i >= 0; i--) {
+            for (int j = newSize - 1; j >= 0; j--) {
+                if (callback.areItemsTheSame(oldItems.get(i), newItems.get(j))) {
+                    lcs[i][j] = lcs[i + 1][j + 1] + 1;
+                } else {
+                    lcs[i][j] = Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+                }
+            }
+        }
+
+        int[] oldToNew = new int[oldSize];
+        int[] newToOld = new int[newSize];
+        boolean[] anchored = new boolean[oldSize];
+        Arrays.fill(oldToNew, -1);
+        Arrays.fill(newToOld, -1);
+
+        int i = 0;
+        int j = 0;
+        while (i < oldSize && j < newSize) {
+            if (lcs[i][j] == lcs[i + 1][j + 1] + 1 && callback.areItemsTheSame(oldItems.get(i), newItems.get(j))) {
+                oldToNew[i] = j;
+                newToOld[j] = i;
+                anchored[i] = true;
+                i++;
+                j++;
+            } else if (lcs[i + 1][j] >= lcs[i][j + 1]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+
+        // Items that are in both lists but out of order are moved rather than removed and inserted
+        for (j = 0; j < newSize; j++) {
+            if (newToOld[j] != -1) {
+                continue;
+            }
+            for (i = 0; i < oldSize; i++) {
+                if (oldToNew[i] == -1 && callback.areItemsTheSame(oldItems.get(i), newItems.get(j))) {
+                    oldToNew[i] = j;
+                    newToOld[j] = i;
+                    break;
+                }
+            }
+        }
+
+        ListDiff diff = new ListDiff();
+
+        // Removals, from the back so that earlier positions stay valid
+        i = oldSize - 1;
+        while (i >= 0) {
+            if (oldToNew[i] != -1) {
+                i--;
+                continue;
+            }
+            int end = i;
+            while (i >= 0 && oldToNew[i] == -1) {
+                i--;
+            }
+            diff.add(REMOVE, i + 1, end - i);
+        }
+
+        // What is left, in old order
+        int[] current = new int[oldSize];
+        int currentSize = 0;
+        for (i = 0; i < oldSize; i++) {
+            if (oldToNew[i] != -1) {
+                current[currentSize++] = i;
+            }
+        }
+
+        // Put every moved item right behind the item that precedes it in the new list
+        int previous = -1;
+        for (j = 0; j < newSize; j++) {
+            int old = newToOld[j];
+            if (old == -1) {
+                continue;
+            }
+            if (!anchored[old]) {
+                int from = indexOf(current, currentSize, old);
+                System.arraycopy(current, from + 1, current, from, currentSize - from - 1);
+                currentSize--;
+
+                int to = previous == -1 ? 0 : indexOf(current, currentSize, previous) + 1;
+                System.arraycopy(current, to, current, to + 1, currentSize - to);
+                current[to] = old;
+                currentSize++;
+
+                if (from != to) {
+                    diff.add(MOVE, from, to);
+                }
+            }
+            previous = old;
+        }
+
+        // Insertions, from the front now that everything before them is in its final place
+        j = 0;
+        while (j < newSize) {
+            if (newToOld[j] != -1) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < newSize && newToOld[j] == -1) {
+                j++;
+            }
+            diff.add(INSERT, start, j - start);
+        }
+
+        j = 0;
+        while (j < newSize) {
+            if (newToOld[j] == -1 || callback.areContentsTheSame(oldItems.get(newToOld[j]), newItems.get(j))) {
+                j++;
+                continue;
+            }
+            int start = j;
+            while (j < newSize && newToOld[j] != -1
+                    && !callback.areContentsTheSame(oldItems.get(newToOld[j]), newItems.get(j))) {
+                j++;
+            }
+            diff.add(CHANGE, start, j - start);
+        }
+
+        return diff;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void dispatchTo(RecyclerView.Adapter<?> adapter) {
+        for (int op = 0; op < mSize; op += 3) {
+            int position = mOps[op + 1];
+            int argument = mOps[op + 2];
+            switch (mOps[op]) {
+                case REMOVE:
+                    adapter.notifyItemRangeRemoved(position, argument);
+                    break;
+                case INSERT:
+                    adapter.notifyItemRangeInserted(position, argument);
+                    break;
+                case MOVE:
+                    adapter.notifyItemMoved(position, argument);
+                    break;
+                case CHANGE:
+                    adapter.notifyItemRangeChanged(position, argument);
+                    break;
+            }
+        }
+    }
+
+    private void add(int operation, int position, int argument) {
+        if (mSize + 3 > mOps.length) {
+            mOps = Arrays.copyOf(mOps, mOps.length * 2);
+        }
+        mOps[mSize++] = operation;
+        mOps[mSize++] = position;
+        mOps[mSize++] = argument;
+    }
+
+    private static int indexOf(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,56 @@
+package com.scompt.megaview.library;
+
+import java.util.List;
+
+/**
+ * An {@link ItemStore} backed by a plain list, e.g. one the app keeps in its instance state.
+ * Pages aren't tracked, so adding or dropping a page shifts every row after it.
+ */
+public class ListItemStore<T> implements ItemStore<T> {
+
+    private final List<T> mList;
+
+    public ListItemStore(List<T> list) {
+        mList = list;
+    }
+
+    @Override
+    public int size() {
+        return mList.size();
+    }
+
+    @Override
+    public T get(int position) {
+        return mList.get(position);
+    }
+
+    @Override
+    public void set(int position, T item) {
+        mList.set(position, item);
+    }
+
+    @Override
+    public void addPage(int position, List<? extends T> items) {
+        mList.addAll(position, items);
+    }
+
+    @Override
+    public void addAll(int position, List<? extends T> items) {
+        mList.addAll(position, items);
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        mList.subList(from, to).clear();
+    }
+
+    @Override
+    public void clear() {
+        mList.clear();
+    }
+
+    @Override
+    public String toString() {
+        return mList.toString();
+    }
+}
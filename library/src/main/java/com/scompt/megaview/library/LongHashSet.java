@@ -0,0 +1,120 @@
+package com.scompt.megaview.library;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash set of primitive longs, so that keeping track of item keys doesn't box
+ * every one of them.
+ */
+class LongHashSet {
+
+    private static final long EMPTY = 0;
+
+    private long[] mTable;
+    private boolean mHasEmptyKey;
+    private int mSize;
+
+    LongHashSet() {
+        mTable = new long[32];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    boolean contains(long key) {
+        if (key == EMPTY) {
+            return mHasEmptyKey;
+        }
+        return mTable[indexOf(key)] == key;
+    }
+
+    /**
+     * @return true if the key wasn't in the set yet.
+     */
+    boolean add(long key) {
+        if (key == EMPTY) {
+            if (mHasEmptyKey) {
+                return false;
+            }
+            mHasEmptyKey = true;
+            mSize += 1;
+            return true;
+        }
+
+        int index = indexOf(key);
+        if (mTable[index] == key) {
+            return false;
+        }
+        mTable[index] = key;
+        mSize += 1;
+
+        if (mSize * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        }
+        return true;
+    }
+
+    boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!mHasEmptyKey) {
+                return false;
+            }
+            mHasEmptyKey = false;
+            mSize -= 1;
+            return true;
+        }
+
+        int index = indexOf(key);
+        if (mTable[index] != key) {
+            return false;
+        }
+        mTable[index] = EMPTY;
+        mSize -= 1;
+
+        // Move back the entries of the same probe run so that lookups don't stop at the gap
+        int mask = mTable.length - 1;
+        int gap = index;
+        int next = (index + 1) & mask;
+        while (mTable[next] != EMPTY) {
+            int home = hash(mTable[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                mTable[gap] = mTable[next];
+                mTable[next] = EMPTY;
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(mTable, EMPTY);
+        mHasEmptyKey = false;
+        mSize = 0;
+    }
+
+    private int indexOf(long key) {
+        int mask = mTable.length - 1;
+        int index = hash(key) & mask;
+        while (mTable[index] != EMPTY && mTable[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = mTable;
+        mTable = new long[capacity];
+        for (long key : old) {
+            if (key != EMPTY) {
+                mTable[indexOf(key)] = key;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
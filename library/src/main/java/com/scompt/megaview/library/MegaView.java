@@ -1,18 +1,32 @@
 package com.scompt.megaview.library;
 
 import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.LayoutRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.v4.view.ViewCompat;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.Pair;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,12 +35,23 @@ import android.widget.ProgressBar;
 
 import com.scompt.library.R;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import rx.Observable;
+import rx.Scheduler;
 import rx.Subscriber;
 import rx.android.schedulers.AndroidSchedulers;
+import rx.functions.Action0;
+import rx.functions.Func0;
 import rx.functions.Func1;
 import rx.schedulers.Schedulers;
 
@@ -34,8 +59,33 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
 
     private static final String LOG_TAG = MegaView.class.getSimpleName();
 
-    private static final int ITEM_TYPE_ROW = 0;
-    private static final int ITEM_TYPE_PROGRESS = 1;
+    public static final int ITEM_TYPE_ROW = 0;
+    private static final int ITEM_TYPE_PROGRESS = Integer.MAX_VALUE;
+    private static final int ITEM_TYPE_PLACEHOLDER = Integer.MAX_VALUE - 1;
+    private static final int ITEM_TYPE_ERROR = Integer.MAX_VALUE - 2;
+    private static final int ITEM_TYPE_NO_CONNECTION = Integer.MAX_VALUE - 3;
+    private static final int DEFAULT_MAX_RECYCLED_VIEWS = 5;
+
+    private static final int UPDATE_FOOTER = 1;
+    private static final int UPDATE_STATE = 1 << 1;
+    private static final int UPDATE_LOAD = 1 << 2;
+    private static final int UPDATE_RESTORE = 1 << 3;
+    private static final int UPDATE_MERGE = 1 << 4;
+    private static final int UPDATE_PRELOAD = 1 << 5;
+    private static final int UPDATE_LOAD_PREVIOUS = 1 << 6;
+
+    private static final int STATE_LIST = 0;
+    private static final int STATE_NO_CONNECTION = 1;
+    private static final int STATE_ERROR = 2;
+    private static final int STATE_EMPTY = 3;
+
+    private static final int FOOTER_NONE = 0;
+    private static final int FOOTER_PROGRESS = 1;
+    private static final int FOOTER_ERROR = 2;
+    private static final int FOOTER_NO_CONNECTION = 3;
+
+    private static final long FOOTER_ITEM_ID = Long.MIN_VALUE;
+    private static final long PLACEHOLDER_ITEM_ID = Long.MIN_VALUE + 1;
     private final Func1<Integer, Observable<T>> EMPTY_FUNCTION = new Func1<Integer, Observable<T>>() {
         @Override
         public Observable<T> call(Integer integer) {
@@ -46,23 +96,98 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
     private Func1<Integer, Observable<T>> pageFunction = EMPTY_FUNCTION;
     private ViewBinder<T, U> binder;
 
-    private ArrayList<T> mItems = new ArrayList<>();
+    private ItemStore<T> mItems = new SegmentedItemStore<>();
 
     private static final FrameLayout.LayoutParams LAYOUT_PARAMS = new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
             ViewGroup.LayoutParams.MATCH_PARENT);
 
     private SwipeRefreshLayout mSwipeRefreshLayout;
+    private RecyclerView mRecyclerView;
+    private LinearLayoutManager mLayoutManager;
     private Adapter adapter;
     private int mCurrentPage;
-    private boolean mLoading;
+    private int mNextPage;
+    private int mFooter = FOOTER_NONE;
     private boolean mReachedEnd;
-    private MySubscriber subscriber1 = new MySubscriber();
+    private final PageRequests<List<T>, MySubscriber> mRequests = new PageRequests<>(AndroidSchedulers.mainThread());
+    private int mMaxPagesInFlight = 1;
+    private PageTable mPages = new PageTable();
+    private final PageRequests<List<T>, PrependSubscriber> mPrepends = new PageRequests<>(AndroidSchedulers.mainThread());
+    private int mTopPage;
+    private boolean mReachedTop = true;
+    private final PageRequests<List<T>, RefetchSubscriber> mRefetches = new PageRequests<>(AndroidSchedulers.mainThread());
+    private boolean mResumeOnAttach;
+    private int mMaxRetries = 0;
+    private long mRetryDelayMillis;
+    private long mMaxRetryDelayMillis;
+    private int mFailures;
+    private Scheduler.Worker mRetry;
+    private boolean mStalled;
+    private final Random mRandom = new Random();
+    private boolean mMonitorsConnectivity;
+    private ConnectivityReceiver mConnectivityReceiver;
+    private int mRowErrorLayout;
+    private int mRowNoConnectionLayout;
+    private int mPageWindow = 0;
+    private int mWindowFrom = -1;
+    private int mWindowTo = -1;
+    private int mRowHeight;
+    private int mPlaceholderHeight;
+    private Observable<Integer> mCountSource;
+    private int mCountPageSize;
+    private CountSubscriber mCountSubscriber;
+    private SessionPageStore<T> mPageStore;
+    private ItemStateStore<T> mStateStore;
+    private boolean mStateSaved;
+    private CursorSource<T> mCursorSource;
+    private OffsetSource<T> mOffsetSource;
+    private int mMinPageSize;
+    private int mMaxPageSize;
+    private AdaptivePrefetch mAdaptivePrefetch;
+    private int mMaxAdaptiveRows;
+    private DiffCallback<T> mDiffCallback;
+    private DiffSubscriber mDiffSubscriber;
+    private KeyExtractor<T> mKeyExtractor;
+    private final LongHashSet mKeys = new LongHashSet();
+    // Keys of the rows of evicted pages, by page number rather than index so prepends don't move them
+    private final SparseArray<long[]> mEvictedKeys = new SparseArray<>();
+    // Models by row identity, value-equal rows each have their own. Prepared models wait in
+    // mPreparedModels until their row is merged, only the main thread touches mModels.
+    private final Map<T, Object> mModels = new IdentityHashMap<>();
+    private final Map<T, Object> mPreparedModels = Collections.synchronizedMap(new IdentityHashMap<T, Object>());
+    private final SparseIntArray mPrewarmCounts = new SparseIntArray();
+    private PrewarmHandler mPrewarmHandler;
+    private final UpdateQueue mUpdates = new UpdateQueue();
+    private final List<RefetchSubscriber> mDeferredRefetches = new ArrayList<>();
+    private PagingMetrics mMetrics;
+    private Scheduler mFetchScheduler = Schedulers.io();
+    private Scheduler mPrefetchScheduler = Schedulers.io();
+    private Scheduler mPrepareScheduler = Schedulers.computation();
+    private Scheduler mStoreScheduler = Schedulers.io();
+    private Scheduler mPreloadScheduler = Schedulers.io();
+    private long mReloadStartNanos;
+    private long mFooterBoundNanos;
     private View noConnectionView;
     private View errorView;
     private View emptyView;
     private boolean mConnected = true;
     private boolean mDebug;
     private int mFirstPage = 0;
+    private int mStartPage = Integer.MIN_VALUE;
+    private int mPrefetchDistance = 0;
+    private float mPrefetchScreens = 0;
+    private int mBatchSize = 0;
+    private long mBatchDelayMillis = 0;
+    private int mDeferredMergeRows = 0;
+    private boolean mFlinging;
+    private int mSlowScrollPixels;
+    private int mPreloadRows;
+    private int mMaxPreloads;
+    private int mScrollDirection = 1;
+    private final Preloader mPreloader = new Preloader();
+    private Func1<? super T, Boolean> mFilter;
+    private FilterIndex mFilterIndex;
+    private FilterSubscriber mFilterSubscriber;
 
     public MegaView(Context context) {
         super(context);
@@ -94,146 +219,2146 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
         this.mFirstPage = firstPage;
     }
 
+    /**
+     * Starts loading at {@code page} rather than at the first page, e.g. for a deep link into the
+     * middle of a feed. The pages before it are loaded one by one as the user scrolls towards the
+     * top, down to the first page, keeping the visible rows in place.
+     */
+    public void setStartPage(int page) {
+        this.mStartPage = page;
+    }
+
+    /**
+     * Like {@link #setStartPage(int)}, for a {@link CursorDataSource}. The pages before the one at
+     * {@code cursor} are requested with the previous cursors of the pages after them, until a page
+     * comes without one. {@code null} starts at the beginning.
+     */
+    public void setStartCursor(@Nullable String cursor) {
+        if (mCursorSource == null) {
+            throw new IllegalStateException("setStartCursor() needs a CursorDataSource");
+        }
+        mCursorSource.setStartCursor(cursor);
+    }
+
+    /**
+     * Starts loading the next page once the last visible row is within {@code items} rows of the
+     * end of the loaded data. Defaults to 0, i.e. loading starts when the last row is bound.
+     */
+    public void setPrefetchDistance(int items) {
+        this.mPrefetchDistance = items;
+        this.mPrefetchScreens = 0;
+    }
+
+    /**
+     * Like {@link #setPrefetchDistance(int)}, but measured in screens worth of rows, based on
+     * the number of rows currently visible.
+     */
+    public void setPrefetchScreens(float screens) {
+        this.mPrefetchScreens = screens;
+        this.mPrefetchDistance = 0;
+    }
+
+    /**
+     * Streams each page into the list in batches of at most {@code maxItems} items or
+     * {@code maxDelay} worth of items, whichever comes first, instead of waiting for the page to
+     * complete. Pass 0 for either bound to disable it, or both to go back to whole pages.
+     */
+    public void setStreamingBatch(int maxItems, long maxDelay, TimeUnit unit) {
+        this.mBatchSize = maxItems;
+        this.mBatchDelayMillis = unit.toMillis(maxDelay);
+    }
+
+    /**
+     * Prefetches further ahead when the user scrolls faster than pages arrive, by as many rows
+     * as scroll by during the average page latency, up to {@code maxRows}. The distance set with
+     * {@link #setPrefetchDistance(int)} or {@link #setPrefetchScreens(float)} is the minimum,
+     * which slow readers stay at. With an {@link OffsetDataSource} the same estimate picks the
+     * size of each page. 0 disables it, which is the default.
+     */
+    public void setAdaptivePrefetch(int maxRows) {
+        this.mMaxAdaptiveRows = maxRows;
+        this.mAdaptivePrefetch = maxRows > 0 ? new AdaptivePrefetch() : null;
+    }
+
+    /**
+     * Calls {@link PreloadingBinder#preload(Object)} for up to {@code rows} rows beyond the
+     * visible ones, in the direction the user scrolls, with at most {@code maxInFlight} preloads
+     * running at a time. Preloads of rows that scroll out of that range again are cancelled.
+     * The binder has to be a {@link PreloadingBinder}. 0 rows disables it, which is the default.
+     */
+    public void setPreloading(int rows, int maxInFlight) {
+        this.mPreloadRows = rows;
+        this.mMaxPreloads = Math.max(1, maxInFlight);
+        mPreloader.cancelAll();
+        mUpdates.requestPreload();
+    }
+
+    /**
+     * Where {@link PreloadingBinder#preload(Object)} is subscribed to. Defaults to
+     * {@link Schedulers#io()}, keep it apart from the fetch schedulers so that a burst of
+     * preloads can't hold back the next page.
+     */
+    public void setPreloadScheduler(@NonNull Scheduler scheduler) {
+        this.mPreloadScheduler = scheduler;
+    }
+
+    /**
+     * Holds back pages that arrive while the list is flinging, rather than inserting them and
+     * triggering a layout pass mid-fling. Pages keep being fetched in the background. Once the
+     * fling ends or slows down to a crawl, the held back rows are inserted at most
+     * {@code maxRowsPerFrame} rows per frame. 0 disables it, which is the default.
+     */
+    public void setDefersMergesWhileFlinging(int maxRowsPerFrame) {
+        this.mDeferredMergeRows = maxRowsPerFrame;
+        if (maxRowsPerFrame <= 0) {
+            mUpdates.requestMerge();
+        }
+    }
+
+    /**
+     * Allows up to {@code pages} pages to be fetched concurrently. Pages are still merged into the
+     * list strictly in order, so a later page that completes first waits for the earlier ones.
+     */
+    public void setMaxPagesInFlight(int pages) {
+        this.mMaxPagesInFlight = Math.max(1, pages);
+    }
+
+    /**
+     * Keeps only the pages within {@code pages} pages of the visible ones in the data holder.
+     * Rows of pages further away are replaced with {@code null} and shown as placeholders, and
+     * are fetched again through the data source when they come back into the window.
+     * 0 disables it, which is the default.
+     */
+    public void setPageWindow(int pages) {
+        this.mPageWindow = pages;
+        mWindowFrom = -1;
+        mWindowTo = -1;
+    }
+
+    /**
+     * For data sources that know how many rows there are. On {@link #reload()} the list is sized
+     * to the count emitted by {@code count} straight away, with a placeholder for every row, and
+     * only the pages that become visible are fetched, in whatever order the user scrolls to them.
+     * Jumping far ahead, e.g. with {@code scrollToPosition}, therefore doesn't load every page in
+     * between.
+     *
+     * Every page but the last one has to have exactly {@code pageSize} rows, such that the page
+     * of each position is known up front. {@link #setStartPage(int)} scrolls to its page. Pass
+     * {@code null} to go back to loading one page after another.
+     */
+    public void setTotalCount(@Nullable Observable<Integer> count, int pageSize) {
+        if (count != null && (mCursorSource != null || mOffsetSource != null)) {
+            throw new IllegalStateException("setTotalCount() needs page numbers");
+        }
+        this.mCountSource = count;
+        this.mCountPageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * With a callback, pull-to-refresh keeps the current rows until the new first page has
+     * arrived. It then diffs the two on a background thread and only notifies the adapter about
+     * the rows that were inserted, removed, moved or changed.
+     */
+    public void setDiffCallback(@Nullable DiffCallback<T> callback) {
+        this.mDiffCallback = callback;
+    }
+
+    /**
+     * Records page latencies, page sizes, time to first item, loading footer time and bind times
+     * into {@code metrics}, which can be shared between MegaViews.
+     */
+    public void setMetrics(@Nullable PagingMetrics metrics) {
+        this.mMetrics = metrics;
+    }
+
+    /**
+     * Fetches pages on {@code visible} when they are visible or the user is waiting for them
+     * below the last row, and on {@code prefetch} when they are requested ahead of time. Both
+     * default to {@link Schedulers#io()}.
+     */
+    public void setFetchSchedulers(@NonNull Scheduler visible, @NonNull Scheduler prefetch) {
+        this.mFetchScheduler = visible;
+        this.mPrefetchScheduler = prefetch;
+    }
+
+    /**
+     * Fetches pages on a bounded pool that runs visible pages before prefetched ones.
+     */
+    public void setFetchExecutor(@NonNull PageFetchExecutor executor) {
+        setFetchSchedulers(executor.visible(), executor.prefetch());
+    }
+
+    /**
+     * Where {@link PreparingBinder#prepare(Object)} runs before a page is merged on the main
+     * thread. Defaults to {@link Schedulers#computation()}.
+     */
+    public void setPrepareScheduler(@NonNull Scheduler scheduler) {
+        this.mPrepareScheduler = scheduler;
+    }
+
+    /**
+     * Where merged pages are written to the {@link PageStore}. Defaults to
+     * {@link Schedulers#io()}.
+     */
+    public void setStoreScheduler(@NonNull Scheduler scheduler) {
+        this.mStoreScheduler = scheduler;
+    }
+
+    /**
+     * Retries a failed page up to {@code maxRetries} times before giving up on it. The first retry
+     * waits {@code initialDelay}, every further one twice as long as the one before, up to
+     * {@code maxDelay}. Each wait is randomized between half of it and all of it, so that clients
+     * that failed at the same time don't all retry at the same time. 0 retries is the default.
+     */
+    public void setRetryPolicy(int maxRetries, long initialDelay, long maxDelay, TimeUnit unit) {
+        this.mMaxRetries = Math.max(0, maxRetries);
+        this.mRetryDelayMillis = Math.max(1, unit.toMillis(initialDelay));
+        this.mMaxRetryDelayMillis = Math.max(mRetryDelayMillis, unit.toMillis(maxDelay));
+    }
+
+    /**
+     * Once there is a connection again, loading resumes at the page that couldn't be loaded
+     * without one, keeping the rows that were loaded before.
+     */
     public void setConnected(boolean connected) {
+        boolean reconnected = connected && !mConnected;
         mConnected = connected;
+        if (reconnected && mStalled) {
+            retry();
+        }
+    }
+
+    /**
+     * Follows the device's connectivity while the view is attached, instead of relying on
+     * {@link #setConnected(boolean)}. The library's manifest adds the ACCESS_NETWORK_STATE
+     * permission this needs.
+     */
+    public void setMonitorsConnectivity(boolean monitor) {
+        if (monitor == mMonitorsConnectivity) {
+            return;
+        }
+        mMonitorsConnectivity = monitor;
+
+        if (getWindowToken() != null) {
+            if (monitor) {
+                registerConnectivityReceiver();
+            } else {
+                unregisterConnectivityReceiver();
+            }
+        }
+    }
+
+    /**
+     * Requests the page that failed or couldn't be loaded without a connection again, right away
+     * and with a fresh set of retries.
+     */
+    public void retry() {
+        if (mDebug) Log.d(LOG_TAG, "retry()");
+        mStalled = false;
+        mFailures = 0;
+        cancelRetry();
+        load();
     }
 
     public void setDebug(boolean debug) {
         this.mDebug = debug;
     }
 
+    /**
+     * @param binder a {@link ViewBinder}, or a {@link MultiTypeViewBinder} for rows of more than
+     *               one type.
+     */
     public void setBinder(ViewBinder<T, U> binder) {
         this.binder = binder;
+        startPrewarming();
+    }
+
+    /**
+     * Shares {@code pool} with other MegaViews, so that a new screen can reuse the rows another
+     * one already inflated. The MegaViews sharing a pool should use the same view types.
+     */
+    public void setRecycledViewPool(@NonNull RecyclerView.RecycledViewPool pool) {
+        mRecyclerView.setRecycledViewPool(pool);
+    }
+
+    /**
+     * Inflates {@code count} rows of {@code viewType} into the recycled view pool while the main
+     * thread is idle, one row per idle pass, so the first scroll doesn't have to inflate them.
+     * Inflating waits until the view is attached and has a binder, and pauses while it is detached.
+     * Use {@link #ITEM_TYPE_ROW} unless the binder is a {@link MultiTypeViewBinder}.
+     */
+    public void prewarmViewHolders(int viewType, int count) {
+        if (count > DEFAULT_MAX_RECYCLED_VIEWS) {
+            mRecyclerView.getRecycledViewPool().setMaxRecycledViews(viewType, count);
+        }
+        mPrewarmCounts.put(viewType, mPrewarmCounts.get(viewType) + count);
+        startPrewarming();
+    }
+
+    /**
+     * Only runs while attached and with a binder, the idle handler holds on to the view.
+     */
+    private void startPrewarming() {
+        if (mPrewarmHandler == null && binder != null && mPrewarmCounts.size() > 0 && getWindowToken() != null) {
+            mPrewarmHandler = new PrewarmHandler();
+            Looper.myQueue().addIdleHandler(mPrewarmHandler);
+        }
+    }
+
+    private void stopPrewarming() {
+        if (mPrewarmHandler != null) {
+            Looper.myQueue().removeIdleHandler(mPrewarmHandler);
+            mPrewarmHandler = null;
+        }
+    }
+
+    private class PrewarmHandler implements MessageQueue.IdleHandler {
+
+        @Override
+        public boolean queueIdle() {
+            int index = mPrewarmCounts.size() - 1;
+            if (mPrewarmHandler != this || index < 0) {
+                if (mPrewarmHandler == this) {
+                    mPrewarmHandler = null;
+                }
+                return false;
+            }
+
+            int viewType = mPrewarmCounts.keyAt(index);
+            int remaining = mPrewarmCounts.valueAt(index) - 1;
+            if (remaining > 0) {
+                mPrewarmCounts.put(viewType, remaining);
+            } else {
+                mPrewarmCounts.removeAt(index);
+            }
+
+            mRecyclerView.getRecycledViewPool().putRecycledView(adapter.createViewHolder(mRecyclerView, viewType));
+            return true;
+        }
     }
 
     public void setDataHolder(ArrayList<T> items) {
-        if (mDebug) Log.d(LOG_TAG, String.format("setDataHolder(%s)", items));
-        this.mItems = items;
+        setItemStore(new ListItemStore<>(items));
+    }
+
+    /**
+     * Replaces the default {@link SegmentedItemStore}, e.g. with a {@link ListItemStore} around a
+     * list the app already keeps its rows in.
+     */
+    public void setItemStore(@NonNull ItemStore<T> store) {
+        if (mDebug) Log.d(LOG_TAG, String.format("setItemStore(%s)", store));
+        this.mItems = store;
+        rebuildKeys();
+    }
+
+    /**
+     * Gives every row a stable id and drops items whose key is already in the list, e.g. when an
+     * offset based backend shifts between two requests. Keys from {@code Long.MIN_VALUE} up to
+     * {@code Long.MIN_VALUE} plus the number of rows are used for the loading and placeholder rows.
+     */
+    public void setKeyExtractor(@Nullable KeyExtractor<T> keyExtractor) {
+        this.mKeyExtractor = keyExtractor;
+
+        // Stable ids can't be changed while the adapter is attached
+        mRecyclerView.setAdapter(null);
+        adapter.setHasStableIds(keyExtractor != null);
+        mRecyclerView.setAdapter(adapter);
+
+        rebuildKeys();
+    }
+
+    /**
+     * Only shows the loaded rows that {@code filter} accepts, without clearing or fetching
+     * anything. The filter runs over the loaded rows on the prepare scheduler, and the adapter
+     * is told which rows disappeared or came back once it is done. Rows that arrive later are
+     * filtered as they are merged. Placeholders are always shown, their rows are filtered once
+     * they have been fetched. Pass {@code null} to show every row again.
+     *
+     * Pages keep loading while the end of the filtered rows is in view, just like without a
+     * filter, so a filter that accepts few rows pulls in pages until the screen is filled.
+     */
+    public void setFilter(@Nullable Func1<? super T, Boolean> filter) {
+        if (mFilterSubscriber != null) {
+            mFilterSubscriber.unsubscribe();
+            mFilterSubscriber = null;
+        }
+
+        if (filter == null) {
+            if (mFilterIndex != null) {
+                publishFilter(null, FilterIndex.all(mItems.size()));
+            }
+            return;
+        }
+
+        final List<T> items = getRows(0, mItems.size());
+        final Func1<? super T, Boolean> predicate = filter;
+        mFilterSubscriber = new FilterSubscriber(filter, items.size());
+        Observable.defer(new Func0<Observable<FilterIndex>>() {
+            @Override
+            public Observable<FilterIndex> call() {
+                return Observable.just(filterRows(items, 0, predicate));
+            }
+        })
+                .subscribeOn(mPrepareScheduler)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(mFilterSubscriber);
+    }
+
+    /**
+     * Waits for the filter pass over a snapshot of the first {@code end} rows. Rows appended in
+     * the meantime are filtered when it is published and rows whose contents changed are
+     * filtered again, only insertions and removals before {@code end} throw the pass away.
+     */
+    private class FilterSubscriber extends Subscriber<FilterIndex> {
+        private final Func1<? super T, Boolean> mPredicate;
+        private final int mEnd;
+        private final BitSet mChanged = new BitSet();
+        private boolean mStale;
+
+        FilterSubscriber(Func1<? super T, Boolean> predicate, int end) {
+            mPredicate = predicate;
+            mEnd = end;
+        }
+
+        void onRowsInserted(int position) {
+            mStale |= position < mEnd;
+        }
+
+        void onRowsRemoved(int position) {
+            mStale |= position < mEnd;
+        }
+
+        /**
+         * Placeholders keep what the pass found for the row they replaced.
+         */
+        void onRowsChanged(int position, int count) {
+            int end = Math.min(position + count, mEnd);
+            for (int row = position; row < end; row++) {
+                if (mItems.get(row) != null) {
+                    mChanged.set(row);
+                }
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (mFilterSubscriber == this) {
+                mFilterSubscriber = null;
+            }
+            Log.w(LOG_TAG, "error filtering: " + e.getMessage(), e);
+        }
+
+        @Override
+        public void onNext(FilterIndex index) {
+            if (mFilterSubscriber != this) {
+                return;
+            }
+            mFilterSubscriber = null;
+            if (mStale) {
+                // Rows moved in the meantime, the positions don't match anymore
+                setFilter(mPredicate);
+                return;
+            }
+
+            for (int row = mChanged.nextSetBit(0); row >= 0; row = mChanged.nextSetBit(row + 1)) {
+                T item = mItems.get(row);
+                int i = index.indexOf(row);
+                boolean shown = i < index.size() && index.get(i) == row;
+                boolean passes = item == null ? shown : mPredicate.call(item);
+                if (shown && !passes) {
+                    index.remove(i, i + 1);
+                } else if (!shown && passes) {
+                    index.insert(i, new int[]{row}, 1);
+                }
+            }
+            if (mItems.size() > mEnd) {
+                index.insert(index.size(), filterRows(getRows(mEnd, mItems.size()), mEnd, mPredicate));
+            }
+            publishFilter(mPredicate, index);
+        }
+    }
+
+    /**
+     * @return the positions, counted from {@code offset}, of the rows that pass the filter.
+     * Placeholders always pass.
+     */
+    private static <T> FilterIndex filterRows(List<T> items, int offset, Func1<? super T, Boolean> filter) {
+        int[] positions = new int[Math.max(16, items.size())];
+        int count = 0;
+        for (int i = 0; i < items.size(); i++) {
+            T item = items.get(i);
+            if (item == null || filter.call(item)) {
+                positions[count++] = offset + i;
+            }
+        }
+        return new FilterIndex(positions, count);
+    }
+
+    /**
+     * Switches to {@code index} and tells the adapter about the rows that were removed or
+     * inserted compared to the current one.
+     */
+    private void publishFilter(@Nullable Func1<? super T, Boolean> filter, FilterIndex index) {
+        FilterIndex old = mFilterIndex != null ? mFilterIndex : FilterIndex.all(mItems.size());
+        mFilter = filter;
+        mFilterIndex = filter != null ? index : null;
+        mPreloader.cancelAll();
+
+        // Both are sorted, so walking them side by side finds the runs of removed and added rows
+        int i = 0;
+        int j = 0;
+        int position = 0;
+        while (i < old.size() || j < index.size()) {
+            int a = i < old.size() ? old.get(i) : Integer.MAX_VALUE;
+            int b = j < index.size() ? index.get(j) : Integer.MAX_VALUE;
+            if (a == b) {
+                i++;
+                j++;
+                position++;
+            } else if (a < b) {
+                int start = i;
+                while (i < old.size() && old.get(i) < b) {
+                    i++;
+                }
+                adapter.notifyItemRangeRemoved(position, i - start);
+            } else {
+                int start = j;
+                while (j < index.size() && index.get(j) < a) {
+                    j++;
+                }
+                adapter.notifyItemRangeInserted(position, j - start);
+                position += j - start;
+            }
+        }
+        mUpdates.requestPreload();
+    }
+
+    /**
+     * @return the number of rows the adapter shows, not counting the footer.
+     */
+    private int getRowCount() {
+        return RowLookup.rowCount(mItems, mFilterIndex);
+    }
+
+    private int toItemPosition(int adapterPosition) {
+        return RowLookup.toItemPosition(mFilterIndex, adapterPosition);
+    }
+
+    /**
+     * @return the adapter position of the row at {@code position}, or of the next one that
+     * passes the filter.
+     */
+    private int toAdapterPosition(int position) {
+        return mFilterIndex != null ? mFilterIndex.indexOf(position) : position;
+    }
+
+    /**
+     * @return the position in the data holder of the first visible row. Rows hidden by the
+     * filter count as visible if they come before it and nothing else is shown before them.
+     */
+    private int getFirstVisibleRow() {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || first >= getRowCount()) {
+            return RecyclerView.NO_POSITION;
+        }
+        return first == 0 ? 0 : toItemPosition(first);
+    }
+
+    /**
+     * @return the position in the data holder of the last visible row, not counting the footer.
+     * Like with {@link #getFirstVisibleRow()}, hidden rows at the end count as visible, so that
+     * a filter that hides the last page still loads the next one.
+     */
+    private int getLastVisibleRow() {
+        int last = Math.min(mLayoutManager.findLastVisibleItemPosition(), getRowCount() - 1);
+        if (last < 0) {
+            return getRowCount() == 0 ? mItems.size() - 1 : RecyclerView.NO_POSITION;
+        }
+        return last == getRowCount() - 1 ? mItems.size() - 1 : toItemPosition(last);
+    }
+
+    /**
+     * Notifies the adapter about rows inserted into the data holder, keeping the filter up to
+     * date.
+     *
+     * @return the number of rows the adapter shows more now.
+     */
+    private int notifyRowsInserted(int position, int count) {
+        if (mFilterSubscriber != null) {
+            mFilterSubscriber.onRowsInserted(position);
+        }
+        if (mFilterIndex == null) {
+            adapter.notifyItemRangeInserted(position, count);
+            return count;
+        }
+
+        FilterIndex inserted = filterRows(getRows(position, position + count), position, mFilter);
+        int index = mFilterIndex.indexOf(position);
+        mFilterIndex.shift(index, count);
+        mFilterIndex.insert(index, inserted);
+        if (inserted.size() > 0) {
+            adapter.notifyItemRangeInserted(index, inserted.size());
+        }
+        return inserted.size();
+    }
+
+    private void notifyRowsRemoved(int position, int count) {
+        if (mFilterSubscriber != null) {
+            mFilterSubscriber.onRowsRemoved(position);
+        }
+        if (mFilterIndex == null) {
+            adapter.notifyItemRangeRemoved(position, count);
+            return;
+        }
+
+        int from = mFilterIndex.indexOf(position);
+        int to = mFilterIndex.indexOf(position + count);
+        mFilterIndex.remove(from, to);
+        mFilterIndex.shift(from, -count);
+        if (to > from) {
+            adapter.notifyItemRangeRemoved(from, to - from);
+        }
+    }
+
+    /**
+     * Rows that became placeholders keep their place in the filtered list, the others are
+     * filtered again.
+     */
+    private void notifyRowsChanged(int position, int count) {
+        if (mFilterSubscriber != null) {
+            mFilterSubscriber.onRowsChanged(position, count);
+        }
+        if (mFilterIndex == null) {
+            adapter.notifyItemRangeChanged(position, count);
+            return;
+        }
+
+        boolean moved = false;
+        for (int row = position; row < position + count; row++) {
+            T item = mItems.get(row);
+            int index = mFilterIndex.indexOf(row);
+            boolean shown = index < mFilterIndex.size() && mFilterIndex.get(index) == row;
+            boolean passes = item == null ? shown : mFilter.call(item);
+            if (shown && passes) {
+                adapter.notifyItemChanged(index);
+            } else if (shown) {
+                mFilterIndex.remove(index, index + 1);
+                adapter.notifyItemRemoved(index);
+                moved = true;
+            } else if (passes) {
+                mFilterIndex.insert(index, new int[]{row}, 1);
+                adapter.notifyItemInserted(index);
+                moved = true;
+            }
+        }
+        if (moved) {
+            mPreloader.cancelAll();
+        }
     }
 
     public void setDataSource(Func1<Integer, Observable<T>> pageFunction) {
         this.pageFunction = pageFunction;
+        this.mCursorSource = null;
+        this.mOffsetSource = null;
+    }
+
+    /**
+     * For backends that page with cursors rather than page numbers, e.g. keyset pagination. The
+     * next cursor of each page is passed in to request the page after it, and the known cursors
+     * are kept in the saved state. Pages are therefore requested one after another, whatever
+     * {@link #setMaxPagesInFlight(int)} allows.
+     */
+    public void setDataSource(CursorDataSource<T> source) {
+        this.mCursorSource = new CursorSource<>(source, getStartPage());
+        this.pageFunction = mCursorSource;
+        this.mOffsetSource = null;
+        this.mCountSource = null;
+    }
+
+    /**
+     * For backends that take an offset and a limit, which lets MegaView choose the size of every
+     * page between {@code minPageSize} and {@code maxPageSize}, see
+     * {@link #setAdaptivePrefetch(int)}. Without it every page has {@code minPageSize} rows.
+     * {@link #setStartPage(int)} starts at {@code minPageSize} rows per page before it.
+     */
+    public void setDataSource(OffsetDataSource<T> source, int minPageSize, int maxPageSize) {
+        this.mMinPageSize = Math.max(1, minPageSize);
+        this.mMaxPageSize = Math.max(mMinPageSize, maxPageSize);
+        this.mOffsetSource = new OffsetSource<>(source, mMinPageSize);
+        this.pageFunction = mOffsetSource;
+        this.mCursorSource = null;
+        this.mCountSource = null;
+        resetCursors();
+    }
+
+    /**
+     * Pages found in {@code store} are shown straight away and then fetched again from the data
+     * source in the background. Every page received from the data source is written back to it.
+     * The store is cleared when the list starts at another page or cursor than the one its pages
+     * were written for.
+     */
+    public void setPageStore(@Nullable PageStore<T> store) {
+        this.mPageStore = store == null ? null : new SessionPageStore<>(store);
+    }
+
+    /**
+     * @return what the page numbers of the store are relative to.
+     */
+    private String getStoreSession() {
+        if (mCursorSource != null) {
+            String cursor = mCursorSource.getStartCursor();
+            return cursor == null ? "cursor" : "cursor:" + cursor;
+        }
+        return (mOffsetSource != null ? "offset:" : "page:") + getStartPage();
+    }
+
+    /**
+     * Lets MegaView keep its rows across configuration changes and process death, so the app
+     * doesn't have to put the data holder into its own instance state. Every merged page is
+     * written to {@code directory}, which should be app-private and used by this MegaView only,
+     * and the saved state just holds a handle to it and the scroll position.
+     *
+     * After a restore into an empty data holder the rows are shown as placeholders and read back
+     * page by page as they scroll into view. With {@link #setPageWindow(int)}, evicted pages are
+     * read back from here too, rather than fetched again through the data source.
+     *
+     * The pages are deleted when the activity finishes without the view having saved its state,
+     * or when the directory is set to {@code null}. Pages left behind otherwise, e.g. by saved
+     * states that were never restored or views that were removed for good, are deleted a day
+     * later.
+     */
+    public void setStateDirectory(@Nullable File directory, @Nullable ItemSerializer<T> serializer) {
+        if (mStateStore != null) {
+            mStateStore.release();
+        }
+        if (directory == null || serializer == null) {
+            this.mStateStore = null;
+        } else {
+            this.mStateStore = new ItemStateStore<>(directory, serializer);
+        }
     }
 
     public void reload() {
         if (mDebug) Log.d(LOG_TAG, "reload()");
-        subscriber1.unsubscribe();
+        mReloadStartNanos = System.nanoTime();
+        cancelRequests();
         mReachedEnd = false;
+        mStalled = false;
+        mFailures = 0;
         onStopLoading();
 
-        int itemCount = mItems.size();
-        mItems.clear();
-        adapter.notifyItemRangeRemoved(0, itemCount);
+        clearItems();
         mSwipeRefreshLayout.setRefreshing(false);
-        mCurrentPage = mFirstPage;
+        resetPages();
+        resetCursors();
         load();
     }
 
-    private void load() {
-        if (mDebug) Log.d(LOG_TAG, String.format("load(mLoading=%s, mReachedEnd=%s, mConnected=%s, mCurrentPage=%d)",
-                mLoading, mReachedEnd, mConnected, mCurrentPage));
+    private void load() {
+        if (mDebug) Log.d(LOG_TAG, String.format("load(mRequests=%d, mReachedEnd=%s, mConnected=%s, mCurrentPage=%d, mNextPage=%d)",
+                mRequests.size(), mReachedEnd, mConnected, mCurrentPage, mNextPage));
+
+        if (mReachedEnd || mStalled || mRetry != null || mDiffSubscriber != null
+                || mRequests.size() >= mMaxPagesInFlight || !isRequestable(mNextPage)) {
+            return;
+        }
+
+        if (!mConnected) {
+            stall();
+            return;
+        }
+
+        ensureRecyclerVisible();
+
+        if (mCountSource != null) {
+            loadCount();
+            return;
+        }
+
+        if (mRequests.isEmpty()) {
+            onStartLoading();
+        }
+        if (mOffsetSource != null) {
+            mOffsetSource.setLimit(getPageSize());
+        }
+
+        while (mRequests.size() < mMaxPagesInFlight && isRequestable(mNextPage)) {
+            int page = mNextPage++;
+            MySubscriber subscriber = new MySubscriber(page);
+            Scheduler scheduler = page == mCurrentPage && isShowingEnd() ? mFetchScheduler : mPrefetchScheduler;
+            mRequests.start(page, subscriber, prepareModels(fetchPage(page, subscriber, scheduler)));
+        }
+    }
+
+    private void loadCount() {
+        if (mCountSubscriber != null || mPages.size() > 0) {
+            return;
+        }
+        onStartLoading();
+        mCountSubscriber = new CountSubscriber();
+        mCountSource.subscribeOn(mFetchScheduler)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(mCountSubscriber);
+    }
+
+    /**
+     * Sizes the list to {@code count} placeholders, split into evicted pages of the page size
+     * given to {@link #setTotalCount(Observable, int)}, and requests the visible ones.
+     */
+    private void showPlaceholders(int count) {
+        if (mDebug) Log.d(LOG_TAG, String.format("showPlaceholders(%d)", count));
+        onStopLoading();
+        mReachedEnd = true;
+        if (count == 0) {
+            showEmpty();
+            return;
+        }
+
+        int pages = (count + mCountPageSize - 1) / mCountPageSize;
+        for (int page = 0; page < pages; page++) {
+            int size = Math.min(mCountPageSize, count - page * mCountPageSize);
+            mPages.append(size);
+            mPages.setEvicted(page, true);
+            mItems.addPage(mItems.size(), Collections.<T>nCopies(size, null));
+        }
+        mTopPage = mFirstPage;
+        mReachedTop = true;
+        mCurrentPage = mFirstPage + pages;
+        mNextPage = mCurrentPage;
+
+        notifyRowsInserted(0, count);
+        recordItemCount();
+
+        int startPage = Math.max(mFirstPage, mStartPage);
+        if (startPage > mFirstPage) {
+            int position = Math.min(count - 1, (startPage - mFirstPage) * mCountPageSize);
+            mLayoutManager.scrollToPositionWithOffset(toAdapterPosition(position), 0);
+        }
+        mUpdates.requestRestore();
+    }
+
+    private class CountSubscriber extends Subscriber<Integer> {
+        private int mCount;
+
+        @Override
+        public void onCompleted() {
+            if (mCountSubscriber != this) {
+                return;
+            }
+            mCountSubscriber = null;
+            mFailures = 0;
+            showPlaceholders(mCount);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (mCountSubscriber != this) {
+                return;
+            }
+            mCountSubscriber = null;
+            Log.v(LOG_TAG, "error loading the count: " + e.getMessage(), e);
+
+            mFailures += 1;
+            if (mConnected && mFailures <= mMaxRetries) {
+                scheduleRetry();
+            } else {
+                stall();
+            }
+        }
+
+        @Override
+        public void onNext(Integer count) {
+            mCount = Math.max(0, count);
+        }
+    }
+
+    /**
+     * @return false if the page's cursor is only known once the page before it arrived.
+     */
+    private boolean isRequestable(int page) {
+        if (mOffsetSource != null) {
+            return mOffsetSource.isKnown(page);
+        }
+        return mCursorSource == null || mCursorSource.isKnown(page);
+    }
+
+    private void resetCursors() {
+        if (mCursorSource != null) {
+            mCursorSource.reset(getStartPage());
+        }
+        if (mOffsetSource != null) {
+            mOffsetSource.setLimit(mMinPageSize);
+            mOffsetSource.reset(getStartPage(), (getStartPage() - mFirstPage) * mMinPageSize);
+        }
+    }
+
+    private int getPageSize() {
+        if (mAdaptivePrefetch == null) {
+            return mMinPageSize;
+        }
+        return mAdaptivePrefetch.getRowsAhead(mMinPageSize, mMaxPageSize);
+    }
+
+    private int getStartPage() {
+        return mCursorSource != null ? mFirstPage : Math.max(mFirstPage, mStartPage);
+    }
+
+    /**
+     * Points both ends of the list at the start page, before anything was loaded.
+     */
+    private void resetPages() {
+        int start = getStartPage();
+        mCurrentPage = start;
+        mNextPage = start;
+        mTopPage = start;
+        mReachedTop = mCursorSource != null ? !mCursorSource.hasStartCursor() : start <= mFirstPage;
+    }
+
+    /**
+     * Requests the page before the first loaded one, unless it is already being requested.
+     */
+    private void loadPrevious() {
+        if (mReachedTop || mStalled || !mConnected || mDiffSubscriber != null || mPages.size() == 0
+                || !mPrepends.isEmpty() || !isRequestable(mTopPage - 1)) {
+            return;
+        }
+        if (mDebug) Log.d(LOG_TAG, String.format("loadPrevious(mTopPage=%d)", mTopPage));
+
+        int page = mTopPage - 1;
+        if (mOffsetSource != null) {
+            mOffsetSource.setLimit(getPageSize());
+        }
+        Observable<List<T>> items;
+        List<T> cached = getCachedPage(page);
+        if (cached != null) {
+            items = Observable.just(cached);
+        } else {
+            Scheduler scheduler = mLayoutManager.findFirstVisibleItemPosition() == 0 ? mFetchScheduler : mPrefetchScheduler;
+            items = pageFunction.call(page).subscribeOn(scheduler).toList();
+        }
+        mPrepends.start(page, new PrependSubscriber(page), prepareModels(items));
+    }
+
+    /**
+     * Inserts {@code items} above the loaded rows, keeping the visible rows where they are.
+     */
+    private void prependPage(int page, List<T> items) {
+        if (items.isEmpty()) {
+            mReachedTop = true;
+            return;
+        }
+
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        View firstView = mLayoutManager.findViewByPosition(first);
+        int offset = firstView == null ? 0 : firstView.getTop() - mRecyclerView.getPaddingTop();
+
+        // Page indices shift by one, anything in flight for them would land on the wrong page
+        cancelRefetches();
+        mPreloader.cancelAll();
+        mWindowFrom = -1;
+        mWindowTo = -1;
+
+        List<T> rows = dropDuplicates(items);
+        adoptModels(rows);
+        mItems.addPage(0, rows);
+        mPages.prepend(rows.size());
+        mTopPage = page;
+        if (mCursorSource == null && page <= mFirstPage) {
+            mReachedTop = true;
+        }
+
+        if (!rows.isEmpty()) {
+            int inserted = notifyRowsInserted(0, rows.size());
+            if (first != RecyclerView.NO_POSITION) {
+                mLayoutManager.scrollToPositionWithOffset(first + inserted, offset);
+            }
+        }
+        recordItemCount();
+        storePage(0);
+
+        // Keep going while the top is still within reach
+        mUpdates.requestLoadPrevious();
+    }
+
+    private class PrependSubscriber extends Subscriber<List<T>> {
+        private final int mPage;
+        private List<T> mDeferred;
+
+        PrependSubscriber(int page) {
+            mPage = page;
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (mPrepends.isCurrent(mPage, this)) {
+                // Scrolling up or binding rows near the top again retries
+                mPrepends.remove(mPage);
+            }
+            Log.v(LOG_TAG, "error on previous page " + mPage + ": " + e.getMessage(), e);
+        }
+
+        @Override
+        public void onNext(List<T> items) {
+            if (!mPrepends.isCurrent(mPage, this)) {
+                return;
+            }
+            if (isDeferringMerges()) {
+                // Stays in flight, so that the page isn't requested again in the meantime
+                mDeferred = items;
+                return;
+            }
+            mPrepends.remove(mPage);
+            prependPage(mPage, items);
+        }
+    }
+
+    private boolean isDeferringMerges() {
+        return mDeferredMergeRows > 0 && mFlinging;
+    }
+
+    /**
+     * Merges what was held back while flinging, at most {@code mDeferredMergeRows} rows per frame.
+     * Refetched pages go first, they replace rows the user may be looking at.
+     */
+    private void mergeDeferred() {
+        if (isDeferringMerges()) {
+            return;
+        }
+
+        PrependSubscriber prepend = mPrepends.get(mTopPage - 1);
+        if (prepend != null && prepend.mDeferred != null) {
+            mPrepends.remove(mTopPage - 1);
+            prependPage(mTopPage - 1, prepend.mDeferred);
+        }
+
+        int maxRows = mDeferredMergeRows > 0 ? mDeferredMergeRows : Integer.MAX_VALUE;
+        while (!mDeferredRefetches.isEmpty()) {
+            if (maxRows <= 0) {
+                mUpdates.requestMerge();
+                return;
+            }
+            RefetchSubscriber refetch = mDeferredRefetches.remove(0);
+            if (mRefetches.isCurrent(refetch.mPage, refetch)) {
+                maxRows -= refetch.mDeferred.size();
+                refetch.apply(refetch.mDeferred);
+            }
+        }
+
+        if (mRequests.get(mCurrentPage) != null && maxRows > 0) {
+            mergeCompletedPages(maxRows);
+        } else if (mRequests.get(mCurrentPage) != null) {
+            mUpdates.requestMerge();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> getCachedPage(int page) {
+        if (pageFunction instanceof PageCache) {
+            return ((PageCache<T>) pageFunction).getIfFresh(page);
+        }
+        return null;
+    }
+
+    private Observable<List<T>> fetchPage(final int page, final MySubscriber subscriber, Scheduler scheduler) {
+        List<T> cached = getCachedPage(page);
+        if (cached != null) {
+            subscriber.mFromCache = true;
+            return Observable.just(cached);
+        }
+
+        final Observable<List<T>> remote = toBatches(pageFunction.call(page).subscribeOn(scheduler));
+        final SessionPageStore<T> store = mPageStore;
+        if (store == null) {
+            return remote;
+        }
+
+        final String session = getStoreSession();
+        return Observable.defer(new Func0<Observable<List<T>>>() {
+            @Override
+            public Observable<List<T>> call() {
+                List<T> stored = null;
+                try {
+                    stored = store.read(session, page);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "error reading page " + page + " from store", e);
+                }
+
+                if (stored == null) {
+                    return remote;
+                }
+                subscriber.mFromStore = true;
+                return Observable.just(stored);
+            }
+        }).subscribeOn(scheduler);
+    }
+
+    /**
+     * Runs {@link PreparingBinder#prepare(Object)} for every item on the prepare scheduler,
+     * before the items reach the main thread.
+     */
+    @SuppressWarnings("unchecked")
+    private Observable<List<T>> prepareModels(Observable<List<T>> batches) {
+        if (!(binder instanceof PreparingBinder)) {
+            return batches;
+        }
+
+        final PreparingBinder<T, Object, U> preparingBinder = (PreparingBinder<T, Object, U>) binder;
+        return batches.observeOn(mPrepareScheduler)
+                .map(new Func1<List<T>, List<T>>() {
+                    @Override
+                    public List<T> call(List<T> batch) {
+                        for (T item : batch) {
+                            Object model = preparingBinder.prepare(item);
+                            if (model != null) {
+                                mPreparedModels.put(item, model);
+                            }
+                        }
+                        return batch;
+                    }
+                });
+    }
+
+    /**
+     * Takes over the prepared models of {@code rows}, which just became part of the list.
+     */
+    private void adoptModels(List<T> rows) {
+        if (mPreparedModels.isEmpty()) {
+            return;
+        }
+        for (T row : rows) {
+            Object model = mPreparedModels.remove(row);
+            if (model != null) {
+                mModels.put(row, model);
+            }
+        }
+        sweepPreparedModels();
+    }
+
+    /**
+     * Drops the models prepared for rows that never made it into the list, e.g. of cancelled
+     * pages or dropped duplicates, once nothing is in flight that could still deliver them.
+     */
+    private void sweepPreparedModels() {
+        if (mRequests.isEmpty() && mPrepends.isEmpty() && mRefetches.isEmpty() && mDiffSubscriber == null) {
+            mPreparedModels.clear();
+        }
+    }
+
+    private void forgetModels(List<T> items) {
+        if (mModels.isEmpty()) {
+            return;
+        }
+        for (T item : items) {
+            if (item != null) {
+                mModels.remove(item);
+            }
+        }
+    }
+
+    private void retainModels(List<T> items) {
+        if (mModels.isEmpty()) {
+            return;
+        }
+        Map<T, Object> retained = new IdentityHashMap<>();
+        for (T item : items) {
+            Object model = mModels.get(item);
+            if (model != null) {
+                retained.put(item, model);
+            }
+        }
+        mModels.clear();
+        mModels.putAll(retained);
+    }
+
+    private void storePage(int pageIndex) {
+        if ((mPageStore == null && mStateStore == null) || mPages.sizeOf(pageIndex) == 0) {
+            // An empty page reads back as the end of the list
+            return;
+        }
+
+        final List<T> items = copyPage(pageIndex);
+        final int page = mTopPage + pageIndex;
+        if (mStateStore != null) {
+            mStateStore.write(page, items);
+        }
+        if (mPageStore == null) {
+            return;
+        }
+
+        final SessionPageStore<T> store = mPageStore;
+        final String session = getStoreSession();
+
+        final Scheduler.Worker worker = mStoreScheduler.createWorker();
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                try {
+                    store.write(session, page, items);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "error writing page " + page + " to store", e);
+                } finally {
+                    worker.unsubscribe();
+                }
+            }
+        });
+    }
+
+    private void storeState(int pageIndex) {
+        if (mStateStore != null && mPages.sizeOf(pageIndex) > 0) {
+            mStateStore.write(mTopPage + pageIndex, copyPage(pageIndex));
+        }
+    }
+
+    private List<T> copyPage(int pageIndex) {
+        int start = mPages.startOf(pageIndex);
+        return getRows(start, start + mPages.sizeOf(pageIndex));
+    }
+
+    private List<T> getRows(int from, int to) {
+        ArrayList<T> rows = new ArrayList<>(to - from);
+        for (int position = from; position < to; position++) {
+            rows.add(mItems.get(position));
+        }
+        return rows;
+    }
+
+    private void clearItems() {
+        cancelRefetches();
+        mPreloader.cancelAll();
+        if (mStateStore != null) {
+            mStateStore.clear();
+        }
+        mPages.clear();
+        mKeys.clear();
+        mEvictedKeys.clear();
+        mModels.clear();
+        mWindowFrom = -1;
+        mWindowTo = -1;
+
+        int itemCount = mItems.size();
+        mItems.clear();
+        notifyRowsRemoved(0, itemCount);
+        recordItemCount();
+    }
+
+    private void recordItemCount() {
+        if (mMetrics != null) {
+            mMetrics.setItemCount(mItems.size());
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    private void cancelRequests() {
+        mRequests.cancelAll();
+        mPrepends.cancelAll();
+        cancelRetry();
+
+        if (mCountSubscriber != null) {
+            mCountSubscriber.unsubscribe();
+            mCountSubscriber = null;
+        }
+
+        if (mDiffSubscriber != null) {
+            mDiffSubscriber.unsubscribe();
+            mDiffSubscriber = null;
+        }
+        sweepPreparedModels();
+    }
+
+    private void cancelRetry() {
+        if (mRetry != null) {
+            mRetry.unsubscribe();
+            mRetry = null;
+        }
+    }
+
+    /**
+     * Requests the failed page again after the next backoff delay.
+     */
+    private void scheduleRetry() {
+        long delay = mRetryDelayMillis;
+        for (int i = 1; i < mFailures && delay < mMaxRetryDelayMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, mMaxRetryDelayMillis);
+        delay = delay / 2 + (long) (mRandom.nextDouble() * (delay - delay / 2));
+        if (mDebug) Log.d(LOG_TAG, String.format("scheduleRetry(mFailures=%d, delay=%d)", mFailures, delay));
+
+        final Scheduler.Worker worker = AndroidSchedulers.mainThread().createWorker();
+        mRetry = worker;
+        worker.schedule(new Action0() {
+            @Override
+            public void call() {
+                worker.unsubscribe();
+                if (mRetry == worker) {
+                    mRetry = null;
+                    load();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops loading until {@link #retry()} is called or the connection comes back.
+     */
+    private void stall() {
+        mStalled = true;
+        if (mRequests.isEmpty()) {
+            showStalled();
+        }
+    }
+
+    /**
+     * Shows the error or no connection view, or the matching row below the loaded rows.
+     */
+    private void showStalled() {
+        if (mItems.size() == 0) {
+            mUpdates.setFooter(FOOTER_NONE);
+            if (mConnected) {
+                showError();
+            } else {
+                showNoConnection();
+            }
+            return;
+        }
+
+        int rowLayout = mConnected ? mRowErrorLayout : mRowNoConnectionLayout;
+        if (rowLayout == 0) {
+            // Without a row to retry from, scrolling to the end retries as long as there is a connection
+            mStalled = !mConnected;
+            mUpdates.setFooter(FOOTER_NONE);
+        } else {
+            mUpdates.setFooter(mConnected ? FOOTER_ERROR : FOOTER_NO_CONNECTION);
+        }
+    }
+
+    /**
+     * Cancels everything in flight, such that {@link #load()} picks up again at the first page
+     * that wasn't merged completely.
+     */
+    private void suspendRequests() {
+        MySubscriber head = mRequests.get(mCurrentPage);
+        if (head != null) {
+            head.dropMerged();
+        }
+        cancelRequests();
+        cancelRefetches();
+        mPreloader.cancelAll();
+        mNextPage = mCurrentPage;
+        mWindowFrom = -1;
+        mWindowTo = -1;
+        mSwipeRefreshLayout.setRefreshing(false);
+        onStopLoading();
+    }
+
+    /**
+     * Merges every completed page at the head of the queue, in page order, and starts streaming
+     * the first one that is still in flight. Stops after {@code maxRows} rows and continues in
+     * the next frame.
+     */
+    private void mergeCompletedPages(int maxRows) {
+        MySubscriber head = mRequests.get(mCurrentPage);
+        while (head != null) {
+            maxRows -= head.flushPending(maxRows);
+            if (!head.mPending.isEmpty()) {
+                mUpdates.requestMerge();
+                return;
+            }
+            if (!head.mCompleted) {
+                break;
+            }
+
+            mRequests.remove(mCurrentPage);
+            mCurrentPage += 1;
+
+            mFailures = 0;
+
+            if (head.mReceived == 0) {
+                if (mItems.size() == 0) {
+                    showEmpty();
+                } else {
+                    mReachedEnd = true;
+                }
+                // Anything after an empty page is past the end
+                cancelRequests();
+                break;
+            }
+
+            int pageIndex = mPages.size() - 1;
+            if (head.mFromStore) {
+                // Revalidate what was shown from the store
+                refetchPage(pageIndex, false);
+                storeState(pageIndex);
+            } else {
+                storePage(pageIndex);
+            }
+            head = mRequests.get(mCurrentPage);
+        }
+
+        if (mRequests.isEmpty()) {
+            if (mStalled) {
+                showStalled();
+            } else if (mRetry == null) {
+                onStopLoading();
+            }
+        }
+        sweepPreparedModels();
+    }
+
+    private void rebuildKeys() {
+        mKeys.clear();
+        mEvictedKeys.clear();
+        if (mKeyExtractor == null) {
+            return;
+        }
+        for (int position = 0; position < mItems.size(); position++) {
+            T item = mItems.get(position);
+            if (item != null) {
+                mKeys.add(mKeyExtractor.getKey(item));
+            }
+        }
+    }
+
+    /**
+     * Removes the keys of the rows {@code page} had when it was evicted.
+     */
+    private void forgetEvictedKeys(int page) {
+        long[] keys = mEvictedKeys.get(page);
+        if (keys == null) {
+            return;
+        }
+        mEvictedKeys.remove(page);
+        for (long key : keys) {
+            mKeys.remove(key);
+        }
+    }
+
+    private void removeKeys(List<T> items) {
+        if (mKeyExtractor == null) {
+            return;
+        }
+        for (T item : items) {
+            if (item != null) {
+                mKeys.remove(mKeyExtractor.getKey(item));
+            }
+        }
+    }
+
+    /**
+     * @return the items of {@code batch} whose keys aren't in the list yet, with their keys added.
+     */
+    private List<T> dropDuplicates(List<T> batch) {
+        if (mKeyExtractor == null) {
+            return batch;
+        }
+
+        List<T> unique = new ArrayList<>(batch.size());
+        for (T item : batch) {
+            if (mKeys.add(mKeyExtractor.getKey(item))) {
+                unique.add(item);
+            } else {
+                if (mDebug) Log.d(LOG_TAG, String.format("dropping duplicate %s", item));
+                mPreparedModels.remove(item);
+            }
+        }
+        return unique;
+    }
+
+    private Observable<List<T>> toBatches(Observable<T> page) {
+        if (mBatchSize > 0 && mBatchDelayMillis > 0) {
+            return page.buffer(mBatchDelayMillis, TimeUnit.MILLISECONDS, mBatchSize);
+        } else if (mBatchDelayMillis > 0) {
+            return page.buffer(mBatchDelayMillis, TimeUnit.MILLISECONDS);
+        } else if (mBatchSize > 0) {
+            return page.buffer(mBatchSize);
+        } else {
+            return page.toList();
+        }
+    }
+
+    private int getPrefetchDistance() {
+        int distance = mPrefetchDistance;
+        if (mPrefetchScreens > 0) {
+            int first = mLayoutManager.findFirstVisibleItemPosition();
+            int last = mLayoutManager.findLastVisibleItemPosition();
+            if (first != RecyclerView.NO_POSITION && last != RecyclerView.NO_POSITION) {
+                distance = (int) Math.ceil((last - first + 1) * mPrefetchScreens);
+            }
+        }
+        if (mAdaptivePrefetch != null) {
+            distance = mAdaptivePrefetch.getRowsAhead(distance, Math.max(distance, mMaxAdaptiveRows));
+        }
+        return distance;
+    }
+
+    private boolean isWithinPrefetchDistance(int position) {
+        return position != RecyclerView.NO_POSITION && mItems.size() > 0
+                && position >= mItems.size() - 1 - getPrefetchDistance();
+    }
+
+    private boolean isWithinPrefetchDistanceOfTop(int position) {
+        return position != RecyclerView.NO_POSITION && position <= getPrefetchDistance();
+    }
+
+    /**
+     * @return whether there are no rows yet or the last one is visible, i.e. the user is waiting
+     * for the next page.
+     */
+    private boolean isShowingEnd() {
+        return mItems.size() == 0 || getLastVisibleRow() >= mItems.size() - 1;
+    }
+
+    private boolean isPageVisible(int page) {
+        int first = getFirstVisibleRow();
+        int last = getLastVisibleRow();
+        if (first == RecyclerView.NO_POSITION || first > last || mPages.itemCount() != mItems.size()) {
+            // Nothing laid out yet, e.g. right after a restore
+            return true;
+        }
+        return page >= mPages.pageAt(first) && page <= mPages.pageAt(last);
+    }
+
+    private void ensureRecyclerVisible() {
+        mUpdates.setState(STATE_LIST);
+    }
+
+    private void showNoConnection() {
+        clearItems();
+        mUpdates.setState(STATE_NO_CONNECTION);
+    }
+
+    private class MySubscriber extends Subscriber<List<T>> {
+        private final int mPage;
+        private final List<T> mPending = new ArrayList<>();
+        private boolean mCompleted;
+        private boolean mAppended;
+        private int mReceived;
+        private int mPageCount;
+        private volatile boolean mFromStore;
+        private boolean mFromCache;
+        private final long mStartNanos = System.nanoTime();
+
+        MySubscriber(int page) {
+            mPage = page;
+        }
+
+        private boolean isCurrent() {
+            return mRequests.isCurrent(mPage, this);
+        }
+
+        private void merge(List<T> batch) {
+            List<T> rows = dropDuplicates(batch);
+            adoptModels(rows);
+            int position = mItems.size();
+            if (!mAppended) {
+                // Appended even if every item turns out to be a duplicate, to keep page numbers
+                mPages.append(0);
+                mItems.addPage(position, rows);
+                mAppended = true;
+            } else {
+                mItems.addAll(position, rows);
+            }
+            if (rows.isEmpty()) {
+                return;
+            }
+
+            mPageCount += rows.size();
+            mPages.growLast(rows.size());
+            notifyRowsInserted(position, rows.size());
+            if (mPreloadRows > 0) {
+                // The new rows may be within reach without any scrolling
+                mUpdates.requestPreload();
+            }
+            if (!mReachedTop && mPages.size() == 1) {
+                // Opened further down, the list can't be scrolled up to trigger the page above
+                mUpdates.requestLoadPrevious();
+            }
+
+            if (mMetrics != null) {
+                if (mReloadStartNanos != 0) {
+                    mMetrics.getTimeToFirstItemMillis().record(millisSince(mReloadStartNanos));
+                    mReloadStartNanos = 0;
+                }
+                recordItemCount();
+            }
+        }
+
+        /**
+         * Drops the rows streamed in so far, so that fetching the page again doesn't duplicate them.
+         */
+        private void dropMerged() {
+            if (!mAppended) {
+                return;
+            }
+
+            int pageStart = mPages.startOf(mPages.size() - 1);
+            List<T> rows = getRows(pageStart, pageStart + mPageCount);
+            removeKeys(rows);
+            forgetModels(rows);
+            mItems.removeRange(pageStart, pageStart + mPageCount);
+            mPages.removeLast();
+            if (mPageCount > 0) {
+                notifyRowsRemoved(pageStart, mPageCount);
+            }
+            mAppended = false;
+            mPageCount = 0;
+            recordItemCount();
+        }
+
+        /**
+         * @return the number of rows taken from the pending ones, at most {@code maxRows}.
+         */
+        private int flushPending(int maxRows) {
+            int count = Math.min(maxRows, mPending.size());
+            if (count > 0) {
+                List<T> rows = mPending.subList(0, count);
+                merge(new ArrayList<>(rows));
+                rows.clear();
+            }
+            return count;
+        }
+
+        @Override
+        public void onCompleted() {
+            if (!isCurrent()) {
+                return;
+            }
+
+            mCompleted = true;
+            if (mMetrics != null) {
+                mMetrics.recordPageLoaded(millisSince(mStartNanos), mReceived);
+            }
+            // Served locally, says nothing about how long the next page takes
+            if (mAdaptivePrefetch != null && !mFromStore && !mFromCache) {
+                mAdaptivePrefetch.recordLatency(millisSince(mStartNanos));
+            }
+            if (mPage == mCurrentPage && !isDeferringMerges()) {
+                mergeCompletedPages(Integer.MAX_VALUE);
+            }
+            Log.v(LOG_TAG, "completed page " + mPage);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            if (!isCurrent()) {
+                return;
+            }
+
+            if (mMetrics != null) {
+                mMetrics.recordPageError(millisSince(mStartNanos));
+            }
+
+            // Later pages can't be merged before this one, so they are fetched again on retry
+            mRequests.cancelFrom(mPage);
+            mNextPage = mPage;
+            dropMerged();
+
+            mFailures += 1;
+            if (mConnected && mFailures <= mMaxRetries && mRetry == null) {
+                scheduleRetry();
+            } else {
+                stall();
+            }
+
+            Log.v(LOG_TAG, "error on page " + mPage + ": " + e.getMessage(), e);
+        }
+
+        @Override
+        public void onNext(List<T> batch) {
+            if (batch.isEmpty() || !isCurrent()) {
+                return;
+            }
+
+            mReceived += batch.size();
+            if (mPage != mCurrentPage || isDeferringMerges()) {
+                mPending.addAll(batch);
+            } else if (mDeferredMergeRows > 0 && !mPending.isEmpty()) {
+                // Still catching up after a fling, stay behind the rows held back before
+                mPending.addAll(batch);
+                mUpdates.requestMerge();
+            } else {
+                flushPending(Integer.MAX_VALUE);
+                merge(batch);
+            }
+        }
+    }
+
+    /**
+     * Keeps the preloads of the rows just beyond the visible ones running. Preloads are keyed by
+     * adapter position, so they are cancelled whenever rows before them are inserted or removed.
+     */
+    private class Preloader {
+        private final SparseArray<PreloadSubscriber> mInFlight = new SparseArray<>();
+        private final SparseBooleanArray mDone = new SparseBooleanArray();
+
+        @SuppressWarnings("unchecked")
+        void update() {
+            if (mPreloadRows <= 0 || !(binder instanceof PreloadingBinder)) {
+                return;
+            }
+
+            int first = mLayoutManager.findFirstVisibleItemPosition();
+            int last = Math.min(mLayoutManager.findLastVisibleItemPosition(), getRowCount() - 1);
+            if (first == RecyclerView.NO_POSITION || first > last) {
+                return;
+            }
+
+            int from = Math.max(0, first - mPreloadRows);
+            int to = Math.min(getRowCount() - 1, last + mPreloadRows);
+            for (int i = mInFlight.size() - 1; i >= 0; i--) {
+                int position = mInFlight.keyAt(i);
+                if (position < from || position > to) {
+                    mInFlight.valueAt(i).unsubscribe();
+                    mInFlight.removeAt(i);
+                }
+            }
+            for (int i = mDone.size() - 1; i >= 0; i--) {
+                int position = mDone.keyAt(i);
+                if (position < from || position > to) {
+                    mDone.removeAt(i);
+                }
+            }
+
+            PreloadingBinder<T, U> preloadingBinder = (PreloadingBinder<T, U>) binder;
+            if (mScrollDirection >= 0) {
+                for (int position = last + 1; position <= to && mInFlight.size() < mMaxPreloads; position++) {
+                    start(preloadingBinder, position);
+                }
+            } else {
+                for (int position = first - 1; position >= from && mInFlight.size() < mMaxPreloads; position--) {
+                    start(preloadingBinder, position);
+                }
+            }
+        }
+
+        private void start(final PreloadingBinder<T, U> preloadingBinder, int position) {
+            final T item = mItems.get(toItemPosition(position));
+            if (item == null || mDone.get(position) || mInFlight.get(position) != null) {
+                return;
+            }
+
+            PreloadSubscriber subscriber = new PreloadSubscriber(position);
+            mInFlight.put(position, subscriber);
+            Observable.defer(new Func0<Observable<Object>>() {
+                @Override
+                public Observable<Object> call() {
+                    return preloadingBinder.preload(item).cast(Object.class);
+                }
+            })
+                    .subscribeOn(mPreloadScheduler)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(subscriber);
+        }
+
+        private void finish(int position, PreloadSubscriber subscriber) {
+            if (mInFlight.get(position) != subscriber) {
+                return;
+            }
+            mInFlight.remove(position);
+            // Failed preloads aren't retried either, binding will load what is missing
+            mDone.put(position, true);
+            mUpdates.requestPreload();
+        }
+
+        void cancelAll() {
+            for (int i = 0; i < mInFlight.size(); i++) {
+                mInFlight.valueAt(i).unsubscribe();
+            }
+            mInFlight.clear();
+            mDone.clear();
+        }
+    }
+
+    private class PreloadSubscriber extends Subscriber<Object> {
+        private final int mPosition;
+
+        PreloadSubscriber(int position) {
+            mPosition = position;
+        }
+
+        @Override
+        public void onCompleted() {
+            mPreloader.finish(mPosition, this);
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            Log.v(LOG_TAG, "error preloading row " + mPosition + ": " + e.getMessage(), e);
+            mPreloader.finish(mPosition, this);
+        }
+
+        @Override
+        public void onNext(Object ignored) {
+        }
+    }
+
+    private void updatePageWindow() {
+        if (mPageWindow <= 0 || mPages.size() == 0 || mPages.itemCount() != mItems.size()) {
+            return;
+        }
+
+        int first = getFirstVisibleRow();
+        int last = getLastVisibleRow();
+        if (first == RecyclerView.NO_POSITION || first > last) {
+            return;
+        }
+
+        int from = Math.max(0, mPages.pageAt(first) - mPageWindow);
+        int to = Math.min(mPages.size() - 1, mPages.pageAt(last) + mPageWindow);
+        if (from == mWindowFrom && to == mWindowTo) {
+            return;
+        }
+        mWindowFrom = from;
+        mWindowTo = to;
+
+        // The last page is never evicted, it may still be streaming in
+        for (int page = 0; page < mPages.size() - 1; page++) {
+            boolean inWindow = page >= from && page <= to;
+            if (inWindow && mPages.isEvicted(page)) {
+                refetchPage(page, true);
+            } else if (!inWindow && !mPages.isEvicted(page)) {
+                evictPage(page);
+            } else if (!inWindow) {
+                cancelRefetch(page);
+            }
+        }
+    }
+
+    /**
+     * Reads back the evicted pages that are visible, e.g. after being restored from the state
+     * directory.
+     */
+    private void restoreVisiblePages() {
+        if (mPages.size() == 0 || mPages.itemCount() != mItems.size()) {
+            return;
+        }
+
+        int first = getFirstVisibleRow();
+        int last = getLastVisibleRow();
+        if (first == RecyclerView.NO_POSITION || first > last) {
+            return;
+        }
+
+        int firstPage = mPages.pageAt(first);
+        int lastPage = mPages.pageAt(last);
+        if (mCountSource != null && mPageWindow <= 0) {
+            // Pages that were only passed on the way, e.g. while flinging, aren't needed anymore
+            mRefetches.cancelOutside(firstPage, lastPage);
+        }
+        for (int page = firstPage; page <= lastPage; page++) {
+            if (mPages.isEvicted(page)) {
+                refetchPage(page, true);
+            }
+        }
+    }
+
+    private void evictPage(int page) {
+        if (mDebug) Log.d(LOG_TAG, String.format("evictPage(%d)", page));
+        cancelRefetch(page);
+
+        int start = mPages.startOf(page);
+        int size = mPages.sizeOf(page);
+        List<T> rows = getRows(start, start + size);
+        forgetModels(rows);
+        if (mKeyExtractor != null) {
+            // Still known while evicted, so that later pages don't bring the rows back twice
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = mKeyExtractor.getKey(rows.get(i));
+            }
+            mEvictedKeys.put(mTopPage + page, keys);
+        }
+        for (int position = start; position < start + size; position++) {
+            mItems.set(position, null);
+        }
+        mPages.setEvicted(page, true);
+        notifyRowsChanged(start, size);
+    }
+
+    /**
+     * @param fromState whether the page may be read back from the state directory, rather than
+     *                  only from the cache or the data source.
+     */
+    private void refetchPage(final int page, boolean fromState) {
+        if (mRefetches.get(page) != null) {
+            return;
+        }
+        if (mDebug) Log.d(LOG_TAG, String.format("refetchPage(%d, %s)", page, fromState));
+
+        final int sourcePage = mTopPage + page;
+        List<T> cached = getCachedPage(sourcePage);
+        if (cached != null && !isDeferringMerges()) {
+            if (restorePage(page, cached)) {
+                storePage(page);
+            }
+            return;
+        }
+
+        final RefetchSubscriber subscriber = new RefetchSubscriber(page);
+        if (cached != null) {
+            // Goes through the subscriber, which holds it back until the fling ends
+            mRefetches.start(page, subscriber, Observable.just(cached));
+            return;
+        }
+
+        final Scheduler scheduler = isPageVisible(page) ? mFetchScheduler : mPrefetchScheduler;
+        final Observable<List<T>> remote = pageFunction.call(sourcePage).subscribeOn(scheduler).toList();
+        final ItemStateStore<T> stateStore = mStateStore;
+        Observable<List<T>> items = remote;
+        if (fromState && stateStore != null) {
+            items = Observable.defer(new Func0<Observable<List<T>>>() {
+                @Override
+                public Observable<List<T>> call() {
+                    List<T> stored = stateStore.read(sourcePage);
+                    if (stored == null) {
+                        return remote;
+                    }
+                    subscriber.mFromState = true;
+                    return Observable.just(stored);
+                }
+            }).subscribeOn(scheduler);
+        }
+
+        mRefetches.start(page, subscriber, prepareModels(items));
+    }
+
+    private void cancelRefetch(int page) {
+        mRefetches.cancel(page);
+    }
+
+    private void cancelRefetches() {
+        mRefetches.cancelAll();
+        mDeferredRefetches.clear();
+        sweepPreparedModels();
+    }
+
+    /**
+     * @return whether the page differed from {@code items}.
+     */
+    private boolean restorePage(int page, List<T> fetched) {
+        int start = mPages.startOf(page);
+        int oldSize = mPages.sizeOf(page);
+
+        // The page may have changed since it was merged, only its current rows count as known
+        List<T> oldItems = null;
+        if (mPages.isEvicted(page)) {
+            forgetEvictedKeys(mTopPage + page);
+        } else {
+            oldItems = getRows(start, start + oldSize);
+            removeKeys(oldItems);
+        }
+        List<T> items = dropDuplicates(fetched);
+        if (oldItems != null) {
+            if (items.equals(oldItems)) {
+                return false;
+            }
+            forgetModels(oldItems);
+        }
+        adoptModels(items);
+
+        int newSize = items.size();
+        int common = Math.min(oldSize, newSize);
+
+        for (int i = 0; i < common; i++) {
+            mItems.set(start + i, items.get(i));
+        }
+        if (newSize > oldSize) {
+            mItems.addAll(start + oldSize, items.subList(oldSize, newSize));
+        } else if (newSize < oldSize) {
+            mItems.removeRange(start + newSize, start + oldSize);
+        }
+        mPages.setSize(page, newSize);
+        mPages.setEvicted(page, false);
+        if (newSize != oldSize) {
+            mPreloader.cancelAll();
+        }
+
+        notifyRowsChanged(start, common);
+        if (newSize > oldSize) {
+            notifyRowsInserted(start + oldSize, newSize - oldSize);
+        } else if (newSize < oldSize) {
+            notifyRowsRemoved(start + newSize, oldSize - newSize);
+        }
+        recordItemCount();
+        return true;
+    }
+
+    private class RefetchSubscriber extends Subscriber<List<T>> {
+        private final int mPage;
+        private volatile boolean mFromState;
+        private List<T> mDeferred;
 
-        if (mLoading || mReachedEnd) {
-            return;
+        RefetchSubscriber(int page) {
+            mPage = page;
         }
-        subscriber1.unsubscribe();
 
-        if (!mConnected) {
-            showNoConnection();
-            return;
+        @Override
+        public void onCompleted() {
         }
 
-        ensureRecyclerVisible();
+        @Override
+        public void onError(Throwable e) {
+            if (mRefetches.isCurrent(mPage, this)) {
+                mRefetches.remove(mPage);
+            }
+            Log.v(LOG_TAG, "error refetching page " + mPage + ": " + e.getMessage(), e);
+        }
 
+        @Override
+        public void onNext(List<T> items) {
+            if (!mRefetches.isCurrent(mPage, this)) {
+                return;
+            }
+            if (isDeferringMerges()) {
+                // Stays in flight, so that the page isn't requested again in the meantime
+                mDeferred = items;
+                mDeferredRefetches.add(this);
+                return;
+            }
+            apply(items);
+        }
 
+        void apply(List<T> items) {
+            mRefetches.remove(mPage);
+            if (restorePage(mPage, items) && !mFromState) {
+                storePage(mPage);
+            }
+            if (mCursorSource != null && isWithinPrefetchDistance(getLastVisibleRow())) {
+                // A page shown from the store only now tells the cursor of the page after it
+                mUpdates.requestLoad();
+            }
+        }
+    }
 
-        onStartLoading();
+    private void refreshWithDiff() {
+        cancelRequests();
+        mStalled = false;
+        mFailures = 0;
+        cancelRefetches();
+        onStopLoading();
 
-        subscriber1 = new MySubscriber();
-        pageFunction.call(mCurrentPage).subscribeOn(Schedulers.io())
+        final List<T> oldItems = getRows(0, mPages.sizeOf(0));
+        final DiffCallback<T> callback = mDiffCallback;
+        mDiffSubscriber = new DiffSubscriber(oldItems.size());
+        prepareModels(pageFunction.call(getStartPage()).subscribeOn(mFetchScheduler).toList())
+                .map(new Func1<List<T>, Pair<List<T>, ListDiff>>() {
+                    @Override
+                    public Pair<List<T>, ListDiff> call(List<T> newItems) {
+                        return Pair.create(newItems, ListDiff.compute(oldItems, newItems, callback));
+                    }
+                })
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(subscriber1);
+                .subscribe(mDiffSubscriber);
     }
 
-    private void ensureRecyclerVisible() {
-        if (mSwipeRefreshLayout.getVisibility() == GONE) {
-            mSwipeRefreshLayout.setVisibility(VISIBLE);
-            noConnectionView.setVisibility(GONE);
-            emptyView.setVisibility(GONE);
-            errorView.setVisibility(GONE);
+    private class DiffSubscriber extends Subscriber<Pair<List<T>, ListDiff>> {
+        private final int mOldCount;
+
+        DiffSubscriber(int oldCount) {
+            mOldCount = oldCount;
         }
-    }
 
-    private void showNoConnection() {
-        int itemCount = mItems.size();
-        mItems.clear();
-        adapter.notifyItemRangeRemoved(0, itemCount);
+        @Override
+        public void onCompleted() {
+        }
 
-        Runnable runnable = new Runnable() {
-            public void run() {
-                mSwipeRefreshLayout.setVisibility(GONE);
-                errorView.setVisibility(GONE);
-                emptyView.setVisibility(GONE);
-                noConnectionView.setVisibility(VISIBLE);
+        @Override
+        public void onError(Throwable e) {
+            if (mDiffSubscriber != this) {
+                return;
             }
-        };
-        post(runnable);
-    }
+            mDiffSubscriber = null;
+            mSwipeRefreshLayout.setRefreshing(false);
 
-    private class MySubscriber extends Subscriber<T> {
-        private List<T> mItemsToAdd = new ArrayList<>();
+            Log.v(LOG_TAG, "error refreshing: " + e.getMessage(), e);
+        }
 
         @Override
-        public void onCompleted() {
-            mCurrentPage += 1;
-            onStopLoading();
+        public void onNext(Pair<List<T>, ListDiff> result) {
+            if (mDiffSubscriber != this) {
+                return;
+            }
+            mDiffSubscriber = null;
+            mSwipeRefreshLayout.setRefreshing(false);
 
-            if (mItemsToAdd.isEmpty()) {
-                if (mItems.isEmpty()) {
-                    showEmpty();
-                } else {
-                    mReachedEnd = true;
-                }
-            } else {
+            List<T> newItems = result.first;
+            boolean sameTop = mTopPage == getStartPage();
+            resetPages();
+            mReachedEnd = false;
 
-                onStopLoading();
-                int position = mItems.size();
-                int count = mItemsToAdd.size();
-                mItems.addAll(mItemsToAdd);
-                adapter.notifyItemRangeInserted(position, count);
+            if (newItems.isEmpty()) {
+                clearItems();
+                showEmpty();
+                return;
             }
-            Log.v(LOG_TAG, "completed");
-        }
 
-        @Override
-        public void onError(Throwable e) {
-            onStopLoading();
+            // The diff only covers the first page, in case something touched it in the meantime
+            boolean diffable = sameTop && mFilterIndex == null && mPages.size() > 0 && !mPages.isEvicted(0)
+                    && mPages.sizeOf(0) == mOldCount;
+            int tail = mItems.size() - mOldCount;
 
-            if (mItems.isEmpty()) {
-                showError();
+            retainModels(newItems);
+            adoptModels(newItems);
+            mPreloader.cancelAll();
+            mItems.clear();
+            mItems.addPage(0, newItems);
+            rebuildKeys();
+            mPages.clear();
+            mPages.append(newItems.size());
+            mWindowFrom = -1;
+            mWindowTo = -1;
+            mCurrentPage += 1;
+            mNextPage += 1;
+            if (mFilterSubscriber != null) {
+                mFilterSubscriber.onRowsRemoved(0);
+            }
+            if (mFilterIndex != null) {
+                // Only a page left, cheap enough to filter right here
+                mFilterIndex = filterRows(newItems, 0, mFilter);
             }
 
-            Log.v(LOG_TAG, "error: " + e.getMessage(), e);
-        }
+            if (diffable) {
+                if (tail > 0) {
+                    adapter.notifyItemRangeRemoved(mOldCount, tail);
+                }
+                result.second.dispatchTo(adapter);
+            } else {
+                adapter.notifyDataSetChanged();
+            }
 
-        @Override
-        public void onNext(T t) {
-            mItemsToAdd.add(t);
+            recordItemCount();
+            if (mStateStore != null) {
+                // Later pages were dropped from the page table
+                mStateStore.clear();
+            }
+            storePage(0);
         }
     }
 
     private void showError() {
-        mSwipeRefreshLayout.setVisibility(GONE);
-        noConnectionView.setVisibility(GONE);
-        emptyView.setVisibility(GONE);
-        errorView.setVisibility(VISIBLE);
+        mUpdates.setState(STATE_ERROR);
     }
 
     private void showEmpty() {
-        mSwipeRefreshLayout.setVisibility(GONE);
-        noConnectionView.setVisibility(GONE);
-        errorView.setVisibility(GONE);
-        emptyView.setVisibility(VISIBLE);
+        mUpdates.setState(STATE_EMPTY);
+    }
+
+    private void applyState(int state) {
+        mSwipeRefreshLayout.setVisibility(state == STATE_LIST ? VISIBLE : GONE);
+        noConnectionView.setVisibility(state == STATE_NO_CONNECTION ? VISIBLE : GONE);
+        errorView.setVisibility(state == STATE_ERROR ? VISIBLE : GONE);
+        emptyView.setVisibility(state == STATE_EMPTY ? VISIBLE : GONE);
     }
 
     private void initialize(Context context) {
@@ -244,9 +2369,14 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
         mSwipeRefreshLayout = new SwipeRefreshLayout(context);
         mSwipeRefreshLayout.setOnRefreshListener(new RefreshListener());
 
-        RecyclerView mRecyclerView = new RecyclerView(context);
+        // Until a row has been measured, placeholders need some height or all of them are laid out
+        mPlaceholderHeight = (int) (48 * getResources().getDisplayMetrics().density);
+        mSlowScrollPixels = (int) (4 * getResources().getDisplayMetrics().density);
+
+        mRecyclerView = new RecyclerView(context);
         mRecyclerView.setId(R.id.recycler_view);
-        mRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+        mLayoutManager = new LinearLayoutManager(context);
+        mRecyclerView.setLayoutManager(mLayoutManager);
         adapter = new Adapter();
         mRecyclerView.setAdapter(adapter);
 
@@ -262,65 +2392,269 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
         emptyView.setVisibility(GONE);
         addView(emptyView, LAYOUT_PARAMS);
 
-//        mRecyclerView.setOnScrollListener(new RecyclerView.OnScrollListener() {
-//            @Override
-//            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
-//                super.onScrollStateChanged(recyclerView, newState);
-//            }
-//
-//            @Override
-//            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
-//                super.onScrolled(recyclerView, dx, dy);
-//            }
-//        });
+        mRecyclerView.setOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(int newState) {
+                setFlinging(newState == RecyclerView.SCROLL_STATE_SETTLING);
+                if (newState == RecyclerView.SCROLL_STATE_IDLE && mAdaptivePrefetch != null) {
+                    mAdaptivePrefetch.recordIdle();
+                }
+            }
+
+            @Override
+            public void onScrolled(int dx, int dy) {
+                if (dy != 0) {
+                    mScrollDirection = dy;
+                }
+                mPreloader.update();
+                if (mAdaptivePrefetch != null) {
+                    int rowHeight = mRowHeight > 0 ? mRowHeight : mPlaceholderHeight;
+                    mAdaptivePrefetch.recordScroll((float) dy / rowHeight, System.nanoTime());
+                }
+                if (mFlinging && Math.abs(dy) < mSlowScrollPixels) {
+                    setFlinging(false);
+                }
+                if (dy > 0 && isWithinPrefetchDistance(getLastVisibleRow())) {
+                    load();
+                } else if (dy < 0 && isWithinPrefetchDistanceOfTop(getFirstVisibleRow())) {
+                    loadPrevious();
+                }
+                updatePageWindow();
+            }
+        });
 
 
         mSwipeRefreshLayout.addView(mRecyclerView, LAYOUT_PARAMS);
         addView(mSwipeRefreshLayout, LAYOUT_PARAMS);
     }
 
+    public interface DiffCallback<T> {
+        public boolean areItemsTheSame(T oldItem, T newItem);
+
+        public boolean areContentsTheSame(T oldItem, T newItem);
+    }
+
+    public interface KeyExtractor<T> {
+        public long getKey(T item);
+    }
+
+    public interface OffsetDataSource<T> {
+        /**
+         * @return an observable emitting at most {@code limit} rows, starting with the row at
+         * {@code offset}. Fewer rows than asked for don't end the list, no rows do.
+         */
+        public Observable<T> call(int offset, int limit);
+    }
+
+    public interface CursorDataSource<T> {
+        /**
+         * @param cursor {@code null} for the first page, otherwise the next cursor of the page
+         *               before the requested one.
+         * @return an observable emitting the page.
+         */
+        public Observable<CursorPage<T>> call(@Nullable String cursor);
+    }
+
     public interface ViewBinder<U, V extends RecyclerView.ViewHolder> {
         public V onCreateViewHolder(ViewGroup parent);
 
         public void onBindViewHolder(V holder, U item);
     }
 
+    /**
+     * A binder for rows of more than one type. MegaView only calls the two argument
+     * {@link #onCreateViewHolder(ViewGroup, int)}.
+     */
+    public interface MultiTypeViewBinder<U, V extends RecyclerView.ViewHolder> extends ViewBinder<U, V> {
+        /**
+         * @return the view type of {@code item}, from {@link #ITEM_TYPE_ROW} up.
+         */
+        public int getItemViewType(U item);
+
+        public V onCreateViewHolder(ViewGroup parent, int viewType);
+    }
+
+    /**
+     * A binder that can fetch what a row needs, e.g. its images, before the row is bound, see
+     * {@link #setPreloading(int, int)}.
+     */
+    public interface PreloadingBinder<U, V extends RecyclerView.ViewHolder> extends ViewBinder<U, V> {
+        /**
+         * Called on a background thread for rows that are about to scroll into view.
+         *
+         * @return an observable that completes once the row's resources are loaded. Unsubscribing
+         * from it cancels the preload.
+         */
+        public Observable<?> preload(U item);
+    }
+
+    /**
+     * A binder that does the expensive part of binding, e.g. formatting or parsing, in
+     * {@link #prepare(Object)}. MegaView calls it on a background thread as pages arrive and keeps
+     * the resulting model next to the item, so binding on the main thread only has to assign it.
+     */
+    public static abstract class PreparingBinder<U, M, V extends RecyclerView.ViewHolder> implements ViewBinder<U, V> {
+
+        /**
+         * Called on a background thread. Equal items must result in equal models.
+         */
+        public abstract M prepare(U item);
+
+        public abstract void onBindViewHolder(V holder, U item, M model);
+
+        @Override
+        public final void onBindViewHolder(V holder, U item) {
+            onBindViewHolder(holder, item, prepare(item));
+        }
+    }
+
     private class RefreshListener implements SwipeRefreshLayout.OnRefreshListener {
 
         @Override
         public void onRefresh() {
             if (mDebug) Log.d(LOG_TAG, "onRefresh()");
-            subscriber1.unsubscribe();
+            if (pageFunction instanceof PageCache) {
+                // Pulling to refresh asks for fresh data, unlike reload()
+                ((PageCache) pageFunction).clear();
+            }
+
+            if (mDiffCallback != null && mCountSource == null && mConnected && mPages.size() > 0 && !mPages.isEvicted(0)) {
+                refreshWithDiff();
+                return;
+            }
+
+            cancelRequests();
             mReachedEnd = false;
+            mStalled = false;
+            mFailures = 0;
             onStopLoading();
 
-            int itemCount = mItems.size();
-            mItems.clear();
-            adapter.notifyItemRangeRemoved(0, itemCount);
+            clearItems();
             mSwipeRefreshLayout.setRefreshing(false);
-            mCurrentPage = mFirstPage;
+            resetPages();
+            resetCursors();
             load();
         }
     }
 
+    private void setFlinging(boolean flinging) {
+        if (mFlinging && !flinging) {
+            mUpdates.requestMerge();
+        }
+        mFlinging = flinging;
+    }
+
     private void onStartLoading() {
         Log.v(LOG_TAG, "onStartLoading");
-        post(new Runnable() {
-            public void run() {
-                mLoading = true;
-                adapter.notifyItemInserted(mItems.size());
-            }
-        });
+        mUpdates.setFooter(FOOTER_PROGRESS);
     }
 
     private void onStopLoading() {
         Log.v(LOG_TAG, "onStopLoading");
-        post(new Runnable() {
-            public void run() {
-                mLoading = false;
-                adapter.notifyItemRemoved(mItems.size());
+        mUpdates.setFooter(FOOTER_NONE);
+    }
+
+    /**
+     * Collects the footer, state view and load updates requested while handling an event and
+     * applies what is left of them once, at the start of the next frame. Showing and hiding the
+     * footer within the same frame therefore doesn't touch the adapter at all.
+     *
+     * Item insertions aren't queued, the adapter has to be notified together with the change to
+     * the data holder or a layout pass in between would see inconsistent data.
+     */
+    private class UpdateQueue implements Runnable {
+        private int mPending;
+        private boolean mScheduled;
+        private int mNextFooter = FOOTER_NONE;
+        private int mState = STATE_LIST;
+
+        void setFooter(int footer) {
+            mNextFooter = footer;
+            schedule(UPDATE_FOOTER);
+        }
+
+        void setState(int state) {
+            mState = state;
+            schedule(UPDATE_STATE);
+        }
+
+        void requestLoad() {
+            schedule(UPDATE_LOAD);
+        }
+
+        void requestRestore() {
+            schedule(UPDATE_RESTORE);
+        }
+
+        void requestMerge() {
+            schedule(UPDATE_MERGE);
+        }
+
+        void requestPreload() {
+            schedule(UPDATE_PRELOAD);
+        }
+
+        void requestLoadPrevious() {
+            schedule(UPDATE_LOAD_PREVIOUS);
+        }
+
+        private void schedule(int update) {
+            mPending |= update;
+            if (!mScheduled) {
+                mScheduled = true;
+                ViewCompat.postOnAnimation(MegaView.this, this);
             }
-        });
+        }
+
+        @Override
+        public void run() {
+            int pending = mPending;
+            mPending = 0;
+            mScheduled = false;
+
+            if ((pending & UPDATE_STATE) != 0) {
+                applyState(mState);
+            }
+
+            if ((pending & UPDATE_FOOTER) != 0 && mFooter != mNextFooter) {
+                int previous = mFooter;
+                mFooter = mNextFooter;
+                if (previous == FOOTER_NONE) {
+                    adapter.notifyItemInserted(getRowCount());
+                } else if (mFooter == FOOTER_NONE) {
+                    adapter.notifyItemRemoved(getRowCount());
+                } else {
+                    adapter.notifyItemChanged(getRowCount());
+                }
+
+                if (previous == FOOTER_PROGRESS && mFooterBoundNanos != 0) {
+                    if (mMetrics != null) {
+                        mMetrics.getFooterVisibleMillis().record(millisSince(mFooterBoundNanos));
+                    }
+                    mFooterBoundNanos = 0;
+                }
+            }
+
+            if ((pending & UPDATE_MERGE) != 0) {
+                mergeDeferred();
+            }
+
+            if ((pending & UPDATE_RESTORE) != 0) {
+                restoreVisiblePages();
+            }
+
+            if ((pending & UPDATE_LOAD) != 0) {
+                load();
+            }
+
+            if ((pending & UPDATE_LOAD_PREVIOUS) != 0 && isWithinPrefetchDistanceOfTop(getFirstVisibleRow())) {
+                loadPrevious();
+            }
+
+            if ((pending & UPDATE_PRELOAD) != 0) {
+                mPreloader.update();
+            }
+        }
     }
 
     public static class ViewHolder extends RecyclerView.ViewHolder {
@@ -337,52 +2671,181 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
         }
     }
 
+    private class RetryViewHolder extends ViewHolder implements OnClickListener {
+
+        public RetryViewHolder(View itemView) {
+            super(itemView);
+            View button = itemView.findViewById(android.R.id.button1);
+            (button != null ? button : itemView).setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View v) {
+            retry();
+        }
+    }
+
+    private class ConnectivityReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo info = manager.getActiveNetworkInfo();
+            setConnected(info != null && info.isConnected());
+        }
+    }
+
+    private void registerConnectivityReceiver() {
+        if (mConnectivityReceiver == null) {
+            mConnectivityReceiver = new ConnectivityReceiver();
+            // The broadcast is sticky, so this also picks up the current state
+            getContext().registerReceiver(mConnectivityReceiver,
+                    new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+    }
+
+    private void unregisterConnectivityReceiver() {
+        if (mConnectivityReceiver != null) {
+            getContext().unregisterReceiver(mConnectivityReceiver);
+            mConnectivityReceiver = null;
+        }
+    }
+
+    private static class PlaceholderViewHolder extends ViewHolder {
+
+        public PlaceholderViewHolder(Context context) {
+            super(new View(context));
+        }
+    }
+
     private class Adapter extends RecyclerView.Adapter<ViewHolder> {
 
+        private boolean hasFooter() {
+            return mFooter != FOOTER_NONE && !mReachedEnd;
+        }
+
+        @SuppressWarnings("unchecked")
         @Override
         public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-            if (viewType == ITEM_TYPE_ROW) {
-                return binder.onCreateViewHolder(parent);
-            } else {
+            if (viewType == ITEM_TYPE_PROGRESS) {
                 return new ProgressViewHolder(getContext());
+            } else if (viewType == ITEM_TYPE_ERROR) {
+                return new RetryViewHolder(LayoutInflater.from(getContext()).inflate(mRowErrorLayout, parent, false));
+            } else if (viewType == ITEM_TYPE_NO_CONNECTION) {
+                return new RetryViewHolder(LayoutInflater.from(getContext()).inflate(mRowNoConnectionLayout, parent, false));
+            } else if (viewType == ITEM_TYPE_PLACEHOLDER) {
+                return new PlaceholderViewHolder(getContext());
+            } else if (binder instanceof MultiTypeViewBinder) {
+                return ((MultiTypeViewBinder<T, U>) binder).onCreateViewHolder(parent, viewType);
+            } else {
+                return binder.onCreateViewHolder(parent);
             }
         }
 
         @SuppressWarnings("unchecked")
         @Override
         public void onBindViewHolder(ViewHolder holder, int position) {
-            if (position == mItems.size() - 1) {
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        load();
-                    }
-                });
+            int itemPosition = position < getRowCount() ? toItemPosition(position) : mItems.size();
+            if (isWithinPrefetchDistance(itemPosition)) {
+                mUpdates.requestLoad();
+            }
+            if (!mReachedTop && isWithinPrefetchDistanceOfTop(itemPosition)) {
+                mUpdates.requestLoadPrevious();
+            }
+            int viewType = adapter.getItemViewType(position);
+            if (viewType == ITEM_TYPE_PROGRESS) {
+                if (mFooterBoundNanos == 0) {
+                    mFooterBoundNanos = System.nanoTime();
+                }
+            } else if (viewType == ITEM_TYPE_ERROR || viewType == ITEM_TYPE_NO_CONNECTION) {
+                // Nothing to bind, the row only retries
+            } else if (viewType == ITEM_TYPE_PLACEHOLDER) {
+                holder.itemView.setMinimumHeight(mRowHeight > 0 ? mRowHeight : mPlaceholderHeight);
+                // Can't touch the adapter while it is laying out rows
+                mUpdates.requestRestore();
+            } else {
+                if (holder.itemView.getHeight() > 0) {
+                    mRowHeight = holder.itemView.getHeight();
+                }
+                if (mMetrics != null) {
+                    long start = System.nanoTime();
+                    bindRow((U) holder, mItems.get(itemPosition));
+                    mMetrics.getBindMicros().record((System.nanoTime() - start) / 1000);
+                } else {
+                    bindRow((U) holder, mItems.get(itemPosition));
+                }
             }
-            if (adapter.getItemViewType(position) == ITEM_TYPE_ROW) {
-                binder.onBindViewHolder((U) holder, mItems.get(position));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void bindRow(U holder, T item) {
+            if (binder instanceof PreparingBinder) {
+                PreparingBinder<T, Object, U> preparingBinder = (PreparingBinder<T, Object, U>) binder;
+                Object model = mModels.get(item);
+                if (model == null) {
+                    // Not loaded through a page, e.g. restored by the app
+                    model = preparingBinder.prepare(item);
+                    if (model != null) {
+                        mModels.put(item, model);
+                    }
+                }
+                preparingBinder.onBindViewHolder(holder, item, model);
+            } else {
+                binder.onBindViewHolder(holder, item);
             }
         }
 
         @Override
         public int getItemCount() {
-            if (mLoading && !mReachedEnd) {
-                return mItems.size() + 1;
+            if (hasFooter()) {
+                return getRowCount() + 1;
+            } else {
+                return getRowCount();
+            }
+        }
+
+        @Override
+        public long getItemId(int position) {
+            int viewType = getItemViewType(position);
+            if (viewType == ITEM_TYPE_PROGRESS || viewType == ITEM_TYPE_ERROR || viewType == ITEM_TYPE_NO_CONNECTION) {
+                return FOOTER_ITEM_ID;
+            } else if (viewType == ITEM_TYPE_PLACEHOLDER || mKeyExtractor == null) {
+                return PLACEHOLDER_ITEM_ID + position;
             } else {
-                return mItems.size();
+                return mKeyExtractor.getKey(mItems.get(toItemPosition(position)));
             }
         }
 
+        @SuppressWarnings("unchecked")
         @Override
         public int getItemViewType(int position) {
-            if (mLoading && !mReachedEnd && position == mItems.size()) {
-                return ITEM_TYPE_PROGRESS;
+            if (RowLookup.isFooter(mItems, mFilterIndex, hasFooter(), position)) {
+                switch (mFooter) {
+                    case FOOTER_ERROR:
+                        return ITEM_TYPE_ERROR;
+                    case FOOTER_NO_CONNECTION:
+                        return ITEM_TYPE_NO_CONNECTION;
+                    default:
+                        return ITEM_TYPE_PROGRESS;
+                }
+            }
+
+            T item = RowLookup.getRow(mItems, mFilterIndex, position);
+            if (item == null) {
+                return ITEM_TYPE_PLACEHOLDER;
+            } else if (binder instanceof MultiTypeViewBinder) {
+                return ((MultiTypeViewBinder<T, U>) binder).getItemViewType(item);
             } else {
                 return ITEM_TYPE_ROW;
             }
         }
     }
 
+    /**
+     * @param rowNoConnectionLayout shown below the loaded rows when the next page can't be loaded
+     *                              without a connection. Tapping its {@code android.R.id.button1},
+     *                              or the row itself, calls {@link #retry()}.
+     */
     public void setNoConnectionLayout(@LayoutRes int fullNoConnectionLayout,
                                       @LayoutRes int rowNoConnectionLayout,
                                       @Nullable OnClickListener onClickListener) {
@@ -399,9 +2862,14 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
 
         noConnectionView.setVisibility(GONE);
         addView(noConnectionView, LAYOUT_PARAMS);
-//        this.rowNoConnectionLayout = rowNoConnectionLayout;
+        this.mRowNoConnectionLayout = rowNoConnectionLayout;
     }
 
+    /**
+     * @param rowErrorLayout shown below the loaded rows when the next page failed and ran out of
+     *                       retries. Tapping its {@code android.R.id.button1}, or the row itself,
+     *                       calls {@link #retry()}.
+     */
     public void setErrorLayout(@LayoutRes int fullErrorLayout,
                                       @LayoutRes int rowErrorLayout,
                                       @Nullable OnClickListener onClickListener) {
@@ -418,7 +2886,7 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
 
         errorView.setVisibility(GONE);
         addView(errorView, LAYOUT_PARAMS);
-//        this.rowNoConnectionLayout = rowNoConnectionLayout;
+        this.mRowErrorLayout = rowErrorLayout;
     }
 
     public void setEmptyLayout(@LayoutRes int fullEmptyLayout,
@@ -439,18 +2907,105 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
 //        this.rowNoConnectionLayout = rowNoConnectionLayout;
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (isInEditMode()) {
+            return;
+        }
+
+        if (mMonitorsConnectivity) {
+            registerConnectivityReceiver();
+        }
+        startPrewarming();
+
+        // Placeholders whose pages were being read back when the view was detached
+        mUpdates.requestRestore();
+        if (mResumeOnAttach) {
+            mResumeOnAttach = false;
+            mUpdates.requestLoad();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (isInEditMode()) {
+            return;
+        }
+
+        // Don't keep delivering pages to a view that may never come back
+        mResumeOnAttach = !mRequests.isEmpty() || mDiffSubscriber != null || mRetry != null
+                || mCountSubscriber != null;
+        suspendRequests();
+        unregisterConnectivityReceiver();
+        stopPrewarming();
+
+        // Nothing can restore the pages anymore. A view that may be attached again keeps them,
+        // the sweep deletes them if it isn't.
+        if (mStateStore != null && !mStateSaved && isHostFinishing()) {
+            mStateStore.release();
+        }
+    }
+
+    private boolean isHostFinishing() {
+        Context context = getContext();
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) {
+                return ((Activity) context).isFinishing();
+            }
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return false;
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (visibility == VISIBLE) {
+            // Back in the foreground, the state saved before won't be restored anymore
+            mStateSaved = false;
+        }
+    }
+
     @Override
     protected Parcelable onSaveInstanceState() {
         Parcelable superState = super.onSaveInstanceState();
 
         SavedState ss = new SavedState(superState);
         ss.page = mCurrentPage;
-        ss.loading = mLoading;
+        ss.loading = !mRequests.isEmpty() || mRetry != null || mCountSubscriber != null;
 //        ss.loaded = loaded
 //        ss.empty =
 //        ss.error = errorView
         ss.connected = mConnected;
         ss.reachedEnd = mReachedEnd;
+        ss.pageSizes = mPages.getSizes();
+        ss.pageEvicted = mPages.getEvicted();
+
+        if (mStateStore != null) {
+            ss.stateHandle = mStateStore.getHandle();
+            mStateSaved = true;
+        }
+        if (mStateStore != null || mCountSource != null) {
+            // Filters aren't saved, so the position is the one in the data holder
+            ss.firstPosition = getFirstVisibleRow();
+            View first = mLayoutManager.findViewByPosition(mLayoutManager.findFirstVisibleItemPosition());
+            ss.firstOffset = first == null ? 0 : first.getTop() - mRecyclerView.getPaddingTop();
+        }
+
+        ss.topPage = mTopPage;
+        ss.reachedTop = mReachedTop;
+        if (mCursorSource != null) {
+            ss.cursorPage = mCursorSource.getLowestPage();
+            ss.cursors = mCursorSource.getCursors(ss.cursorPage);
+            ss.firstCursorPage = mCursorSource.getFirstPage();
+            ss.lastCursorPage = mCursorSource.getLastPage();
+        }
+        if (mOffsetSource != null) {
+            ss.offsetPage = mOffsetSource.getLowestPage();
+            ss.offsetRanges = mOffsetSource.getRanges(ss.offsetPage);
+        }
         return ss;
     }
 
@@ -461,12 +3016,57 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
         super.onRestoreInstanceState(ss.getSuperState());
 
         mCurrentPage = ss.page;
-        mLoading = ss.loading;
+        mNextPage = ss.page;
 //        ss.loaded = loaded
 //        ss.empty =
 //        ss.error = errorView
         mConnected = ss.connected;
         mReachedEnd = ss.reachedEnd;
+        mPages.restore(ss.pageSizes, ss.pageEvicted);
+        mTopPage = ss.topPage;
+        mReachedTop = ss.reachedTop;
+        if (ss.cursors != null && mCursorSource != null) {
+            mCursorSource.restore(ss.cursorPage, ss.cursors, ss.firstCursorPage, ss.lastCursorPage);
+        }
+        if (ss.offsetRanges != null && mOffsetSource != null) {
+            mOffsetSource.restore(ss.offsetPage, ss.offsetRanges);
+        }
+        if (mItems.size() == 0 && (ss.stateHandle != null && mStateStore != null || mCountSource != null)) {
+            restoreState(ss.stateHandle, ss.firstPosition, ss.firstOffset);
+        }
+        rebuildKeys();
+
+        if (ss.loading && !ss.reachedEnd) {
+            // Nothing survives the restore, the page that was loading has to be requested again
+            mUpdates.requestLoad();
+        }
+    }
+
+    /**
+     * Fills the data holder with placeholders for the pages saved under {@code handle}, which are
+     * then read back as they become visible. Without a handle they are fetched again from the
+     * data source, which only works with {@link #setTotalCount(Observable, int)}.
+     */
+    private void restoreState(@Nullable String handle, int firstPosition, int firstOffset) {
+        if (handle != null && mStateStore != null) {
+            mStateStore.restore(handle);
+        }
+
+        // Only completely merged pages were written, the one that was loading is fetched again
+        while (mPages.size() > mCurrentPage - mTopPage) {
+            mPages.removeLast();
+        }
+        for (int page = 0; page < mPages.size(); page++) {
+            mPages.setEvicted(page, mPages.sizeOf(page) > 0);
+            mItems.addPage(mItems.size(), Collections.<T>nCopies(mPages.sizeOf(page), null));
+        }
+
+        notifyRowsInserted(0, mItems.size());
+        recordItemCount();
+
+        if (firstPosition != RecyclerView.NO_POSITION && firstPosition < mItems.size()) {
+            mLayoutManager.scrollToPositionWithOffset(toAdapterPosition(firstPosition), firstOffset);
+        }
     }
 
     static class SavedState extends BaseSavedState {
@@ -478,6 +3078,19 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
         boolean error;
         boolean connected;
         boolean reachedEnd;
+        int[] pageSizes;
+        boolean[] pageEvicted;
+        String stateHandle;
+        int firstPosition;
+        int firstOffset;
+        int topPage;
+        boolean reachedTop;
+        int cursorPage;
+        String[] cursors;
+        int firstCursorPage;
+        int lastCursorPage;
+        int offsetPage;
+        int[] offsetRanges;
 
         public SavedState(Parcel source) {
             super(source);
@@ -492,6 +3105,20 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
             error =      (stateFlags & 0b00001000) != 0;
             connected =  (stateFlags & 0b00010000) != 0;
             reachedEnd = (stateFlags & 0b00100000) != 0;
+            reachedTop = (stateFlags & 0b01000000) != 0;
+
+            pageSizes = source.createIntArray();
+            pageEvicted = source.createBooleanArray();
+            stateHandle = source.readString();
+            firstPosition = source.readInt();
+            firstOffset = source.readInt();
+            topPage = source.readInt();
+            cursorPage = source.readInt();
+            cursors = source.createStringArray();
+            firstCursorPage = source.readInt();
+            lastCursorPage = source.readInt();
+            offsetPage = source.readInt();
+            offsetRanges = source.createIntArray();
         }
 
         public SavedState(Parcelable superState) {
@@ -509,9 +3136,23 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
                     (empty ?      0b00000100 : 0) |
                     (error ?      0b00001000 : 0) |
                     (connected ?  0b00010000 : 0) |
-                    (reachedEnd ? 0b00100000 : 0)
+                    (reachedEnd ? 0b00100000 : 0) |
+                    (reachedTop ? 0b01000000 : 0)
                     );
             dest.writeByte(stateFlags);
+
+            dest.writeIntArray(pageSizes);
+            dest.writeBooleanArray(pageEvicted);
+            dest.writeString(stateHandle);
+            dest.writeInt(firstPosition);
+            dest.writeInt(firstOffset);
+            dest.writeInt(topPage);
+            dest.writeInt(cursorPage);
+            dest.writeStringArray(cursors);
+            dest.writeInt(firstCursorPage);
+            dest.writeInt(lastCursorPage);
+            dest.writeInt(offsetPage);
+            dest.writeIntArray(offsetRanges);
         }
 
         @Override
@@ -524,6 +3165,8 @@ public class MegaView<T, U extends MegaView.ViewHolder> extends FrameLayout {
                     ", error=" + error +
                     ", connected=" + connected +
                     ", reachedEnd=" + reachedEnd +
+                    ", pages=" + (pageSizes == null ? 0 : pageSizes.length) +
+                    ", stateHandle=" + stateHandle +
                     '}';
         }
 
@@ -0,0 +1,112 @@
+package com.scompt.megaview.library;
+
+import java.util.HashMap;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Adapts a {@link MegaView.OffsetDataSource} to the page numbers the rest of MegaView works with.
+ * A page is assigned its offset and limit when it is first requested: it starts where the page
+ * before it ended, or ends where the page after it starts, and is as long as the limit set at
+ * that time. Asking for the page again, e.g. to refetch it, uses the same range. Pages before
+ * offset 0 are empty.
+ *
+ * Everything is called from the main thread.
+ */
+class OffsetSource<T> implements Func1<Integer, Observable<T>> {
+
+    private final MegaView.OffsetDataSource<T> mSource;
+    private final HashMap<Integer, int[]> mRanges = new HashMap<>();
+    private int mLimit;
+
+    OffsetSource(MegaView.OffsetDataSource<T> source, int limit) {
+        mSource = source;
+        mLimit = limit;
+    }
+
+    /**
+     * The number of rows to ask for in pages that are requested from now on.
+     */
+    void setLimit(int limit) {
+        mLimit = limit;
+    }
+
+    /**
+     * Forgets every range, {@code startPage} starts at {@code startOffset}.
+     */
+    void reset(int startPage, int startOffset) {
+        mRanges.clear();
+        mRanges.put(startPage, new int[]{startOffset, mLimit});
+    }
+
+    boolean isKnown(int page) {
+        return mRanges.containsKey(page) || mRanges.containsKey(page - 1) || mRanges.containsKey(page + 1);
+    }
+
+    @Override
+    public Observable<T> call(Integer page) {
+        int[] range = rangeOf(page);
+        if (range == null || range[1] == 0) {
+            return Observable.empty();
+        }
+        return mSource.call(range[0], range[1]);
+    }
+
+    private int[] rangeOf(int page) {
+        int[] range = mRanges.get(page);
+        if (range != null) {
+            return range;
+        }
+
+        int[] previous = mRanges.get(page - 1);
+        int[] next = mRanges.get(page + 1);
+        if (previous != null) {
+            range = new int[]{previous[0] + previous[1], mLimit};
+        } else if (next != null) {
+            int limit = Math.min(mLimit, next[0]);
+            range = new int[]{next[0] - limit, limit};
+        } else {
+            return null;
+        }
+        mRanges.put(page, range);
+        return range;
+    }
+
+    /**
+     * @return the lowest page with a known range.
+     */
+    int getLowestPage() {
+        int lowest = Integer.MAX_VALUE;
+        for (int page : mRanges.keySet()) {
+            lowest = Math.min(lowest, page);
+        }
+        return lowest;
+    }
+
+    /**
+     * @return the offsets, followed by the limits, of {@code fromPage} and every known page after
+     * it, in order.
+     */
+    int[] getRanges(int fromPage) {
+        int count = 0;
+        while (mRanges.containsKey(fromPage + count)) {
+            count++;
+        }
+        int[] ranges = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            int[] range = mRanges.get(fromPage + i);
+            ranges[i] = range[0];
+            ranges[count + i] = range[1];
+        }
+        return ranges;
+    }
+
+    void restore(int fromPage, int[] ranges) {
+        mRanges.clear();
+        int count = ranges.length / 2;
+        for (int i = 0; i < count; i++) {
+            mRanges.put(fromPage + i, new int[]{ranges[i], ranges[count + i]});
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.scompt.megaview.library;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+
+/**
+ * Wraps a data source and remembers the pages it returned, so that asking for a page again within
+ * the time-to-live doesn't hit the data source. At most {@code maxPages} pages are kept, the least
+ * recently used ones are dropped first.
+ *
+ * Keep the cache somewhere that outlives the view, e.g. a retained fragment, and pass it to
+ * {@link MegaView#setDataSource(Func1)}. MegaView serves fresh pages straight from the cache,
+ * without subscribing to anything on a background thread.
+ */
+public class PageCache<T> implements Func1<Integer, Observable<T>> {
+
+    private final Func1<Integer, Observable<T>> mSource;
+    private final long mTtlNanos;
+    private final LinkedHashMap<Integer, Entry<T>> mEntries;
+
+    public PageCache(@NonNull Func1<Integer, Observable<T>> source, final int maxPages, long ttl, TimeUnit unit) {
+        mSource = source;
+        mTtlNanos = unit.toNanos(ttl);
+        mEntries = new LinkedHashMap<Integer, Entry<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry<T>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    @Override
+    public Observable<T> call(final Integer page) {
+        List<T> cached = getIfFresh(page);
+        if (cached != null) {
+            return Observable.from(cached);
+        }
+
+        return Observable.defer(new Func0<Observable<T>>() {
+            @Override
+            public Observable<T> call() {
+                final List<T> items = new ArrayList<>();
+                return mSource.call(page)
+                        .doOnNext(new Action1<T>() {
+                            @Override
+                            public void call(T item) {
+                                items.add(item);
+                            }
+                        })
+                        .doOnCompleted(new Action0() {
+                            @Override
+                            public void call() {
+                                put(page, items);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * @return the cached page if it is younger than the time-to-live, otherwise {@code null}.
+     */
+    public synchronized List<T> getIfFresh(int page) {
+        Entry<T> entry = mEntries.get(page);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.mCreated > mTtlNanos) {
+            mEntries.remove(page);
+            return null;
+        }
+        return entry.mItems;
+    }
+
+    public synchronized void put(int page, List<T> items) {
+        mEntries.put(page, new Entry<>(Collections.unmodifiableList(new ArrayList<>(items)), System.nanoTime()));
+    }
+
+    public synchronized void invalidate(int page) {
+        mEntries.remove(page);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    private static class Entry<T> {
+        final List<T> mItems;
+        final long mCreated;
+
+        Entry(List<T> items, long created) {
+            mItems = items;
+            mCreated = created;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.scompt.megaview.library;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * A bounded pool of threads for fetching pages, see {@link MegaView#setFetchExecutor}. Pages the
+ * user is looking at, or waiting for below the last row, are run before pages that are only
+ * prefetched. Within a priority, pages run in the order they were requested.
+ *
+ * Share one between all MegaViews of a screen, e.g. every tab, so they don't compete with each
+ * other and with the rest of the app for an unbounded number of threads. Idle threads stop after
+ * a while, so an unused executor doesn't hold on to any.
+ */
+public class PageFetchExecutor {
+
+    private static final int PRIORITY_VISIBLE = 0;
+    private static final int PRIORITY_PREFETCH = 1;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+    private final Scheduler mVisible;
+    private final Scheduler mPrefetch;
+
+    public PageFetchExecutor(int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MegaView-fetch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+
+        mVisible = Schedulers.from(new PriorityExecutor(PRIORITY_VISIBLE));
+        mPrefetch = Schedulers.from(new PriorityExecutor(PRIORITY_PREFETCH));
+    }
+
+    /**
+     * For pages that are visible or that the user is waiting for.
+     */
+    public Scheduler visible() {
+        return mVisible;
+    }
+
+    /**
+     * For pages that are fetched ahead of time.
+     */
+    public Scheduler prefetch() {
+        return mPrefetch;
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private class PriorityExecutor implements Executor {
+        private final int mPriority;
+
+        PriorityExecutor(int priority) {
+            mPriority = priority;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mExecutor.execute(new Task(command, mPriority, mSequence.getAndIncrement()));
+        }
+    }
+
+    private static class Task implements Runnable, Comparable<Task> {
+        private final Runnable mCommand;
+        private final int mPriority;
+        private final long mSequence;
+
+        Task(Runnable command, int priority, long sequence) {
+            mCommand = command;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mCommand.run();
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.scompt.megaview.library;
+
+import java.util.ArrayList;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+
+/**
+ * The page requests that are in flight, at most one per page. Starting a request for a page that
+ * is already being fetched does nothing, so triggers that arrive in quick succession, e.g. from
+ * scrolling and binding within the same frame, result in a single subscription.
+ *
+ * Results are observed on the scheduler given to the constructor, and all methods have to be
+ * called from it. Nothing in here touches Android classes, so it can be driven with a
+ * {@code TestScheduler} on the JVM.
+ */
+class PageRequests<V, S extends Subscriber<V>> {
+
+    private final Scheduler mScheduler;
+    private final TreeMap<Integer, S> mRequests = new TreeMap<>();
+
+    PageRequests(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Subscribes {@code subscriber} to {@code source}, unless a request for {@code page} is in
+     * flight already.
+     *
+     * @return whether the request was started.
+     */
+    boolean start(int page, S subscriber, Observable<V> source) {
+        if (mRequests.containsKey(page)) {
+            return false;
+        }
+        mRequests.put(page, subscriber);
+        source.observeOn(mScheduler).subscribe(subscriber);
+        return true;
+    }
+
+    S get(int page) {
+        return mRequests.get(page);
+    }
+
+    /**
+     * @return whether {@code subscriber} is the request for {@code page}, i.e. it hasn't been
+     * cancelled or replaced in the meantime.
+     */
+    boolean isCurrent(int page, S subscriber) {
+        return mRequests.get(page) == subscriber;
+    }
+
+    int size() {
+        return mRequests.size();
+    }
+
+    boolean isEmpty() {
+        return mRequests.isEmpty();
+    }
+
+    /**
+     * Forgets the request for {@code page} without unsubscribing it, once it completed or failed.
+     */
+    void remove(int page) {
+        mRequests.remove(page);
+    }
+
+    void cancel(int page) {
+        S subscriber = mRequests.remove(page);
+        if (subscriber != null) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    /**
+     * Cancels the requests for {@code page} and every page after it.
+     */
+    void cancelFrom(int page) {
+        cancel(mRequests.tailMap(page));
+    }
+
+    /**
+     * Cancels the requests for pages before {@code from} and after {@code to}.
+     */
+    void cancelOutside(int from, int to) {
+        cancel(mRequests.headMap(from));
+        cancel(mRequests.tailMap(to, false));
+    }
+
+    void cancelAll() {
+        cancel(mRequests);
+    }
+
+    private void cancel(SortedMap<Integer, S> requests) {
+        // Unsubscribing may call back into this class, so don't iterate over the map itself
+        ArrayList<S> subscribers = new ArrayList<>(requests.values());
+        requests.clear();
+        for (S subscriber : subscribers) {
+            subscriber.unsubscribe();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.scompt.megaview.library;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persistent storage for pages, keyed by page number. MegaView reads a page from the store before
+ * asking the data source for it, and writes every page it receives from the data source back.
+ * Methods are only called from a background thread.
+ *
+ * Page numbers only mean the same thing for lists that start at the same position, so the store
+ * also keeps the session its pages were written for. MegaView clears it before reading pages of
+ * another session, e.g. after a deep link to a different start page or cursor.
+ */
+public interface PageStore<T> {
+    /**
+     * @return the stored page, or {@code null} if there isn't one.
+     */
+    public List<T> read(int page) throws IOException;
+
+    public void write(int page, List<T> items) throws IOException;
+
+    public void clear() throws IOException;
+
+    /**
+     * @return what was last passed to {@link #writeSession(String)}, or {@code null}.
+     */
+    public String readSession() throws IOException;
+
+    public void writeSession(String session) throws IOException;
+}
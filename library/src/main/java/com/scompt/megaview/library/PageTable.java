@@ -0,0 +1,142 @@
+package com.scompt.megaview.library;
+
+import java.util.Arrays;
+
+/**
+ * Remembers how many rows each merged page contributed to the data holder, so that the rows of a
+ * page can be found, dropped and replaced without looking at the items themselves.
+ *
+ * Page {@code i} is the {@code i}-th page merged since the last reload. Start positions are
+ * computed lazily and only recomputed from the first page whose size changed.
+ */
+class PageTable {
+
+    private int[] mSizes = new int[16];
+    private int[] mStarts = new int[16];
+    private boolean[] mEvicted = new boolean[16];
+    private int mCount;
+    private int mValidStarts;
+
+    int size() {
+        return mCount;
+    }
+
+    int itemCount() {
+        if (mCount == 0) {
+            return 0;
+        }
+        return startOf(mCount - 1) + mSizes[mCount - 1];
+    }
+
+    void append(int size) {
+        ensureCapacity(mCount + 1);
+        mSizes[mCount] = size;
+        mEvicted[mCount] = false;
+        mCount += 1;
+    }
+
+    /**
+     * Inserts a page before the first one, shifting every page index up by one.
+     */
+    void prepend(int size) {
+        ensureCapacity(mCount + 1);
+        System.arraycopy(mSizes, 0, mSizes, 1, mCount);
+        System.arraycopy(mEvicted, 0, mEvicted, 1, mCount);
+        mSizes[0] = size;
+        mEvicted[0] = false;
+        mCount += 1;
+        mValidStarts = 0;
+    }
+
+    void growLast(int by) {
+        mSizes[mCount - 1] += by;
+    }
+
+    void removeLast() {
+        mCount -= 1;
+        mValidStarts = Math.min(mValidStarts, mCount);
+    }
+
+    void clear() {
+        mCount = 0;
+        mValidStarts = 0;
+    }
+
+    int sizeOf(int page) {
+        return mSizes[page];
+    }
+
+    void setSize(int page, int size) {
+        mSizes[page] = size;
+        mValidStarts = Math.min(mValidStarts, page + 1);
+    }
+
+    int startOf(int page) {
+        ensureStarts(page + 1);
+        return mStarts[page];
+    }
+
+    boolean isEvicted(int page) {
+        return mEvicted[page];
+    }
+
+    void setEvicted(int page, boolean evicted) {
+        mEvicted[page] = evicted;
+    }
+
+    /**
+     * @return the page containing {@code position}, or -1 if there are no pages.
+     */
+    int pageAt(int position) {
+        ensureStarts(mCount);
+
+        int low = 0;
+        int high = mCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (mStarts[mid] <= position) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    int[] getSizes() {
+        return Arrays.copyOf(mSizes, mCount);
+    }
+
+    boolean[] getEvicted() {
+        return Arrays.copyOf(mEvicted, mCount);
+    }
+
+    void restore(int[] sizes, boolean[] evicted) {
+        clear();
+        if (sizes == null || evicted == null) {
+            return;
+        }
+        for (int i = 0; i < sizes.length; i++) {
+            append(sizes[i]);
+            mEvicted[i] = evicted[i];
+        }
+    }
+
+    private void ensureStarts(int upTo) {
+        for (int i = mValidStarts; i < upTo; i++) {
+            mStarts[i] = i == 0 ? 0 : mStarts[i - 1] + mSizes[i - 1];
+        }
+        mValidStarts = Math.max(mValidStarts, upTo);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mSizes.length) {
+            int newLength = Math.max(capacity, mSizes.length * 2);
+            mSizes = Arrays.copyOf(mSizes, newLength);
+            mStarts = Arrays.copyOf(mStarts, newLength);
+            mEvicted = Arrays.copyOf(mEvicted, newLength);
+        }
+    }
+}
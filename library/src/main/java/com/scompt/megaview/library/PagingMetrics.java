@@ -0,0 +1,202 @@
+package com.scompt.megaview.library;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms describing how a MegaView pages, see {@link MegaView#setMetrics}.
+ * Recording never allocates, so the values can be left on in production and sampled periodically
+ * from any thread, e.g. to ship them to your own telemetry and {@link #reset()} afterwards.
+ * To react to each page instead, set a {@link Listener}.
+ */
+public class PagingMetrics {
+
+    private final Histogram mPageLatencyMillis = new Histogram();
+    private final Histogram mItemsPerPage = new Histogram();
+    private final Histogram mTimeToFirstItemMillis = new Histogram();
+    private final Histogram mFooterVisibleMillis = new Histogram();
+    private final Histogram mBindMicros = new Histogram();
+    private final AtomicLong mPagesLoaded = new AtomicLong();
+    private final AtomicLong mPageErrors = new AtomicLong();
+    private volatile int mItemCount;
+    private volatile Listener mListener;
+
+    /**
+     * Called on the main thread whenever a MegaView recording into these metrics finished a page.
+     */
+    public interface Listener {
+        void onPageLoaded(PagingMetrics metrics, long latencyMillis, int items);
+
+        void onPageError(PagingMetrics metrics, long latencyMillis);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * From subscribing to a page until it completed or failed.
+     */
+    public Histogram getPageLatencyMillis() {
+        return mPageLatencyMillis;
+    }
+
+    /**
+     * Items returned by the data source per completed page, before de-duplication.
+     */
+    public Histogram getItemsPerPage() {
+        return mItemsPerPage;
+    }
+
+    /**
+     * From {@link MegaView#reload()} until the first row was added.
+     */
+    public Histogram getTimeToFirstItemMillis() {
+        return mTimeToFirstItemMillis;
+    }
+
+    /**
+     * From the loading footer being bound until it was removed again.
+     */
+    public Histogram getFooterVisibleMillis() {
+        return mFooterVisibleMillis;
+    }
+
+    /**
+     * Time spent in the binder for each row.
+     */
+    public Histogram getBindMicros() {
+        return mBindMicros;
+    }
+
+    public long getPagesLoaded() {
+        return mPagesLoaded.get();
+    }
+
+    public long getPageErrors() {
+        return mPageErrors.get();
+    }
+
+    /**
+     * The number of items in the data holder when it last changed.
+     */
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    public void reset() {
+        mPageLatencyMillis.reset();
+        mItemsPerPage.reset();
+        mTimeToFirstItemMillis.reset();
+        mFooterVisibleMillis.reset();
+        mBindMicros.reset();
+        mPagesLoaded.set(0);
+        mPageErrors.set(0);
+    }
+
+    void recordPageLoaded(long latencyMillis, int items) {
+        mPageLatencyMillis.record(latencyMillis);
+        mItemsPerPage.record(items);
+        mPagesLoaded.incrementAndGet();
+
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onPageLoaded(this, latencyMillis, items);
+        }
+    }
+
+    void recordPageError(long latencyMillis) {
+        mPageLatencyMillis.record(latencyMillis);
+        mPageErrors.incrementAndGet();
+
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onPageError(this, latencyMillis);
+        }
+    }
+
+    void setItemCount(int itemCount) {
+        mItemCount = itemCount;
+    }
+
+    /**
+     * A histogram of non-negative values with power of two buckets: bucket 0 counts zeros and
+     * bucket {@code i} counts values from {@code 2^(i-1)} up to {@code 2^i - 1}.
+     */
+    public static class Histogram {
+        public static final int BUCKETS = 64;
+
+        private final long[] mBuckets = new long[BUCKETS];
+        private long mCount;
+        private long mSum;
+        private long mMin = Long.MAX_VALUE;
+        private long mMax;
+
+        public synchronized void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            mBuckets[bucketOf(value)] += 1;
+            mCount += 1;
+            mSum += value;
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        public synchronized long getSum() {
+            return mSum;
+        }
+
+        public synchronized long getMin() {
+            return mCount == 0 ? 0 : mMin;
+        }
+
+        public synchronized long getMax() {
+            return mMax;
+        }
+
+        public synchronized long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * @return an upper bound for the given percentile, between 0 and 1, accurate to its bucket.
+         */
+        public synchronized long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile * mCount);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank && seen > 0) {
+                    long upper = i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, mMax);
+                }
+            }
+            return mMax;
+        }
+
+        /**
+         * Copies the bucket counts into {@code out}, which needs room for {@link #BUCKETS} values.
+         */
+        public synchronized void copyBuckets(long[] out) {
+            System.arraycopy(mBuckets, 0, out, 0, BUCKETS);
+        }
+
+        public synchronized void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                mBuckets[i] = 0;
+            }
+            mCount = 0;
+            mSum = 0;
+            mMin = Long.MAX_VALUE;
+            mMax = 0;
+        }
+
+        private static int bucketOf(long value) {
+            return Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.scompt.megaview.library;
+
+/**
+ * Maps adapter positions to rows of the data holder, through the filter index if there is one.
+ * Kept apart from the adapter so that the benchmarks run the same lookups on a plain JVM.
+ */
+final class RowLookup {
+
+    private RowLookup() {
+    }
+
+    /**
+     * @return the number of rows the adapter shows, not counting the footer.
+     */
+    static int rowCount(ItemStore<?> items, FilterIndex filter) {
+        return filter != null ? filter.size() : items.size();
+    }
+
+    static int toItemPosition(FilterIndex filter, int adapterPosition) {
+        return filter != null ? filter.get(adapterPosition) : adapterPosition;
+    }
+
+    static boolean isFooter(ItemStore<?> items, FilterIndex filter, boolean hasFooter, int adapterPosition) {
+        return hasFooter && adapterPosition == rowCount(items, filter);
+    }
+
+    /**
+     * @return the row shown at {@code adapterPosition}, {@code null} for a placeholder.
+     */
+    static <T> T getRow(ItemStore<T> items, FilterIndex filter, int adapterPosition) {
+        return items.get(toItemPosition(filter, adapterPosition));
+    }
+}
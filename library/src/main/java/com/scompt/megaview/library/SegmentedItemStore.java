@@ -0,0 +1,176 @@
+package com.scompt.megaview.library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The default {@link ItemStore}. Every page lives in its own segment, so adding or dropping a page
+ * never copies the rows of the other pages, and growing the store never copies all rows into a
+ * bigger array. A position is found with a binary search over the segment start positions.
+ *
+ * Start positions are kept relative to an origin, the start of the first segment, which moves
+ * down when a page is added in front. Adding or dropping a page at either end therefore leaves
+ * the other start positions alone, only a page that changes size in the middle shifts the ones
+ * after it.
+ */
+public class SegmentedItemStore<T> implements ItemStore<T> {
+
+    private final ArrayList<ArrayList<T>> mSegments = new ArrayList<>();
+    private int[] mStarts = new int[16];
+    private int mOrigin;
+    private int mSize;
+    // Rows are mostly bound one after another, so the last hit usually matches again
+    private int mLastSegment;
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public T get(int position) {
+        int segment = segmentAt(position);
+        return mSegments.get(segment).get(position + mOrigin - mStarts[segment]);
+    }
+
+    @Override
+    public void set(int position, T item) {
+        int segment = segmentAt(position);
+        mSegments.get(segment).set(position + mOrigin - mStarts[segment], item);
+    }
+
+    @Override
+    public void addPage(int position, List<? extends T> items) {
+        int size = items.size();
+        if (position == 0) {
+            insertSegment(0, mOrigin - size, new ArrayList<T>(items));
+            mOrigin -= size;
+        } else {
+            int segment = position == mSize ? mSegments.size() : splitAt(position);
+            insertSegment(segment, position + mOrigin, new ArrayList<T>(items));
+            shiftStarts(segment + 1, size);
+        }
+        mSize += size;
+    }
+
+    @Override
+    public void addAll(int position, List<? extends T> items) {
+        if (mSegments.isEmpty()) {
+            addPage(position, items);
+            return;
+        }
+
+        int segment;
+        if (position == mSize) {
+            segment = mSegments.size() - 1;
+        } else if (position == 0) {
+            segment = 0;
+        } else {
+            segment = segmentAt(position - 1);
+        }
+        mSegments.get(segment).addAll(position + mOrigin - mStarts[segment], items);
+        shiftStarts(segment + 1, items.size());
+        mSize += items.size();
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        while (from < to) {
+            int segment = segmentAt(from);
+            ArrayList<T> rows = mSegments.get(segment);
+            int start = mStarts[segment] - mOrigin;
+            int end = Math.min(to, start + rows.size());
+            int removed = end - from;
+
+            if (from == start && end == start + rows.size()) {
+                removeSegment(segment);
+                if (segment == 0) {
+                    mOrigin += removed;
+                } else {
+                    shiftStarts(segment, -removed);
+                }
+            } else {
+                rows.subList(from - start, end - start).clear();
+                shiftStarts(segment + 1, -removed);
+            }
+            mSize -= removed;
+            to -= removed;
+        }
+    }
+
+    @Override
+    public void clear() {
+        mSegments.clear();
+        mOrigin = 0;
+        mSize = 0;
+        mLastSegment = 0;
+    }
+
+    /**
+     * Splits the segment containing {@code position} such that a segment starts there.
+     *
+     * @return the index of that segment.
+     */
+    private int splitAt(int position) {
+        int segment = segmentAt(position);
+        ArrayList<T> rows = mSegments.get(segment);
+        int offset = position + mOrigin - mStarts[segment];
+        if (offset == 0) {
+            return segment;
+        }
+
+        List<T> tail = rows.subList(offset, rows.size());
+        insertSegment(segment + 1, position + mOrigin, new ArrayList<>(tail));
+        tail.clear();
+        return segment + 1;
+    }
+
+    private void insertSegment(int segment, int start, ArrayList<T> rows) {
+        int count = mSegments.size();
+        if (mStarts.length == count) {
+            mStarts = Arrays.copyOf(mStarts, count * 2);
+        }
+        System.arraycopy(mStarts, segment, mStarts, segment + 1, count - segment);
+        mStarts[segment] = start;
+        mSegments.add(segment, rows);
+    }
+
+    private void removeSegment(int segment) {
+        System.arraycopy(mStarts, segment + 1, mStarts, segment, mSegments.size() - segment - 1);
+        mSegments.remove(segment);
+    }
+
+    private void shiftStarts(int from, int by) {
+        for (int i = from; i < mSegments.size(); i++) {
+            mStarts[i] += by;
+        }
+    }
+
+    private int segmentAt(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mSize);
+        }
+        int target = position + mOrigin;
+
+        int count = mSegments.size();
+        if (mLastSegment < count && mStarts[mLastSegment] <= target
+                && target < mStarts[mLastSegment] + mSegments.get(mLastSegment).size()) {
+            return mLastSegment;
+        }
+
+        // The last segment starting at or before the position, which skips empty segments
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] <= target) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        mLastSegment = low;
+        return low;
+    }
+}
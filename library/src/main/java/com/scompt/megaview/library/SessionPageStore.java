@@ -0,0 +1,41 @@
+package com.scompt.megaview.library;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Makes sure a {@link PageStore} only serves pages of the session they were written for. Reading
+ * a page of another session clears the store first. Writes for a session that isn't the current
+ * one anymore are dropped, so that a late write can't bring back pages of the previous session.
+ */
+class SessionPageStore<T> {
+
+    private final PageStore<T> mStore;
+    private String mSession;
+
+    SessionPageStore(PageStore<T> store) {
+        mStore = store;
+    }
+
+    synchronized List<T> read(String session, int page) throws IOException {
+        switchTo(session);
+        return mStore.read(page);
+    }
+
+    synchronized void write(String session, int page, List<T> items) throws IOException {
+        if (session.equals(mSession)) {
+            mStore.write(page, items);
+        }
+    }
+
+    private void switchTo(String session) throws IOException {
+        if (session.equals(mSession)) {
+            return;
+        }
+        if (!session.equals(mStore.readSession())) {
+            mStore.clear();
+            mStore.writeSession(session);
+        }
+        mSession = session;
+    }
+}
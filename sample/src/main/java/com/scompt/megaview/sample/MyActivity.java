@@ -3,7 +3,6 @@ package com.scompt.megaview.sample;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.RadioGroup;
@@ -11,8 +10,14 @@ import android.widget.TextView;
 import android.widget.ToggleButton;
 
 import com.scompt.megaview.R;
+import com.scompt.megaview.library.ItemSerializer;
 import com.scompt.megaview.library.MegaView;
+import com.scompt.megaview.library.PageFetchExecutor;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
@@ -25,8 +30,6 @@ import rx.functions.Func1;
 
 public class MyActivity extends Activity {
 
-    private static final String STRINGS_STATE_KEY = "Strings_State";
-
     @InjectView(R.id.megaview)
     MegaView<String, RowViewHolder> megaView;
 
@@ -55,6 +58,9 @@ public class MyActivity extends Activity {
     RadioGroup mConnectivityGroup;
     private ArrayList<String> strings = new ArrayList<>();
 
+    // Shared by every MegaView of the app
+    private static final PageFetchExecutor FETCH_EXECUTOR = new PageFetchExecutor(2);
+
     private Observable<String> getContentObservable(int page) {
         if (mEmptyResponse.isChecked()) {
             return Observable.empty();
@@ -109,8 +115,12 @@ public class MyActivity extends Activity {
         mConnectivityGroup.setOnCheckedChangeListener(ToggleListener);
 
         megaView.setDebug(true);
+        megaView.setPrefetchScreens(1);
+        megaView.setRetryPolicy(2, 500, 4000, TimeUnit.MILLISECONDS);
+        megaView.setFetchExecutor(FETCH_EXECUTOR);
+        megaView.setDefersMergesWhileFlinging(10);
         megaView.setNoConnectionLayout(R.layout.full_no_connection,
-                R.layout.full_no_connection,
+                R.layout.row_no_connection,
                 new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
@@ -118,7 +128,7 @@ public class MyActivity extends Activity {
                     }
                 });
         megaView.setErrorLayout(R.layout.full_error,
-                R.layout.full_error,
+                R.layout.row_error,
                 new View.OnClickListener() {
                     @Override
                     public void onClick(View v) {
@@ -154,6 +164,23 @@ public class MyActivity extends Activity {
                 });
             }
         });
+        megaView.setDiffCallback(new MegaView.DiffCallback<String>() {
+            @Override
+            public boolean areItemsTheSame(String oldItem, String newItem) {
+                return oldItem.equals(newItem);
+            }
+
+            @Override
+            public boolean areContentsTheSame(String oldItem, String newItem) {
+                return oldItem.equals(newItem);
+            }
+        });
+        megaView.setKeyExtractor(new MegaView.KeyExtractor<String>() {
+            @Override
+            public long getKey(String item) {
+                return Long.parseLong(item);
+            }
+        });
         megaView.setConnected(mConnected.isChecked());
         megaView.setDataSource(new Func1<Integer, Observable<String>>() {
             @Override
@@ -162,10 +189,17 @@ public class MyActivity extends Activity {
             }
         });
 
-        if (savedInstanceState != null && savedInstanceState.containsKey(STRINGS_STATE_KEY)) {
-            strings = savedInstanceState.getStringArrayList(STRINGS_STATE_KEY);
-        }
+        megaView.setStateDirectory(new File(getCacheDir(), "megaview"), new ItemSerializer<String>() {
+            @Override
+            public void write(DataOutput out, String item) throws IOException {
+                out.writeUTF(item);
+            }
 
+            @Override
+            public String read(DataInput in) throws IOException {
+                return in.readUTF();
+            }
+        });
         megaView.setDataHolder(strings);
 
         if (savedInstanceState == null) {
@@ -173,12 +207,6 @@ public class MyActivity extends Activity {
         }
     }
 
-    @Override
-    protected void onSaveInstanceState(@NonNull Bundle outState) {
-        super.onSaveInstanceState(outState);
-        outState.putStringArrayList(STRINGS_STATE_KEY, strings);
-    }
-
     protected static class RowViewHolder extends MegaView.ViewHolder {
         private final TextView itemView;
 